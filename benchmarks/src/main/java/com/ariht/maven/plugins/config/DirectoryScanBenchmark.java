@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Scanning a template tree with {@link DirectoryReader#readFiles(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryScanBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int fileCount;
+
+    private SyntheticConfigTree tree;
+    private DirectoryReader directoryReader;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        tree = SyntheticConfigTree.create(fileCount, 1, 64, 0, 0);
+        directoryReader = new DirectoryReader(new QuietLog(), "/", Collections.<String>emptyList());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public List<FileInfo> readFiles() throws IOException {
+        return directoryReader.readFiles(tree.getTemplates().getAbsolutePath());
+    }
+
+}
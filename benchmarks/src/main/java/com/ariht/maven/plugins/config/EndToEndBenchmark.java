@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A complete {@link ConfigProcessorMojo#execute()} over a synthetic tree, starting from an empty
+ * output directory each time. With {@code cache} set to {@code cold} the {@link ResolutionCache}
+ * is emptied before every invocation, with {@code warm} it keeps what earlier invocations cached,
+ * as it would across the modules of a reactor or the builds of a long-lived daemon, and with
+ * {@code off} it is not used at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({ "100", "400" })
+    public int fileCount;
+
+    @Param({ "10" })
+    public int filterCount;
+
+    @Param({ "4096" })
+    public int fileSize;
+
+    @Param({ "5" })
+    public int placeholderDensity;
+
+    @Param({ "0", "2" })
+    public int referenceDepth;
+
+    @Param({ "1", "1C" })
+    public String threads;
+
+    @Param({ "off", "cold", "warm" })
+    public String cache;
+
+    private SyntheticConfigTree tree;
+    private ConfigProcessorMojo mojo;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        tree = SyntheticConfigTree.create(fileCount, filterCount, fileSize, placeholderDensity, referenceDepth);
+        mojo = new ConfigProcessorMojo();
+        mojo.setLog(new QuietLog());
+        mojo.encoding = "UTF-8";
+        mojo.templatesBasePath = tree.getTemplates().getAbsolutePath();
+        mojo.filtersBasePath = tree.getFilters().getAbsolutePath();
+        mojo.outputBasePath = tree.getOutput().getAbsolutePath();
+        mojo.logOutput = false;
+        mojo.threads = threads;
+        mojo.cacheSize = "off".equals(cache) ? 0 : 64L * 1024 * 1024;
+        ResolutionCache.getInstance().clear();
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteOutput() throws IOException {
+        FileUtils.deleteDirectory(tree.getOutput());
+        if ("cold".equals(cache)) {
+            ResolutionCache.getInstance().clear();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        mojo.execute();
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parsing and resolving filters with {@link FilterLoader}, including nested ${} references.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterLoadBenchmark {
+
+    @Param({ "10", "100" })
+    public int filterCount;
+
+    @Param({ "0", "3" })
+    public int referenceDepth;
+
+    private SyntheticConfigTree tree;
+    private List<FileInfo> filters;
+
+    @Setup(Level.Trial)
+    public void createTree() throws Exception {
+        tree = SyntheticConfigTree.create(0, filterCount, 0, 0, referenceDepth);
+        filters = new DirectoryReader(new QuietLog(), "/", Collections.<String>emptyList()).readFiles(tree.getFilters().getAbsolutePath());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public List<LoadedFilter> loadFilters() throws Exception {
+        return new FilterLoader(new QuietLog(), "UTF-8", null, null, new GenerationStatistics()).load(filters);
+    }
+
+}
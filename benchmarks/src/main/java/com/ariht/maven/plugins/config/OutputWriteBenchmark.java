@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing generated output with {@link OutputWriter}, both when the file already has the
+ * content and when it has to be replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputWriteBenchmark {
+
+    @Param({ "1024", "65536", "4194304" })
+    public int fileSize;
+
+    private File directory;
+    private File unchanged;
+    private File changed;
+    private byte[] content;
+    private byte[] otherContent;
+    private boolean alternate;
+    private final OutputWriter outputWriter = new OutputWriter();
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("config-processor-benchmark").toFile();
+        final Random random = new Random(fileSize);
+        content = new byte[fileSize];
+        random.nextBytes(content);
+        otherContent = content.clone();
+        otherContent[fileSize / 2]++;
+        unchanged = new File(directory, "unchanged.properties");
+        changed = new File(directory, "changed.properties");
+        outputWriter.write(unchanged, content);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean writeUnchanged() throws IOException {
+        return outputWriter.write(unchanged, content);
+    }
+
+    @Benchmark
+    public boolean writeChanged() throws IOException {
+        alternate = !alternate;
+        return outputWriter.write(changed, alternate ? content : otherContent);
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.commons.lang.text.StrSubstitutor;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering one template for one filter: compiled, the legacy StrSubstitutor path and streamed.
+ * Filter values are left unresolved so reference depth shows the cost of nested substitution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubstitutionBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    public int fileSize;
+
+    @Param({ "1", "20" })
+    public int placeholderDensity;
+
+    @Param({ "0", "3" })
+    public int referenceDepth;
+
+    private String template;
+    private CompiledTemplate compiledTemplate;
+    private Map<String, String> properties;
+    private final Writer nullWriter = new NullWriter();
+
+    @Setup(Level.Trial)
+    public void createTemplate() {
+        template = SyntheticConfigTree.createTemplate(new Random(fileSize), fileSize, placeholderDensity);
+        compiledTemplate = TemplateCompiler.compile(template);
+        properties = SyntheticConfigTree.createProperties("benchmark", referenceDepth);
+    }
+
+    @Benchmark
+    public CompiledTemplate compile() {
+        return TemplateCompiler.compile(template);
+    }
+
+    @Benchmark
+    public String renderCompiled() {
+        return compiledTemplate.render(properties);
+    }
+
+    @Benchmark
+    public String renderStrSubstitutor() {
+        return StrSubstitutor.replace(template, properties);
+    }
+
+    @Benchmark
+    public Writer renderStreamed() throws IOException {
+        new StreamingSubstitutor(properties).substitute(new StringReader(template), nullWriter);
+        return nullWriter;
+    }
+
+}
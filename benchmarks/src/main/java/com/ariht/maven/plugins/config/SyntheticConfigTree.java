@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates a throw-away tree of templates and filters shaped by the benchmark parameters.
+ *
+ * Every filter defines the same keys with environment specific values. With a reference depth
+ * above zero each key is defined through that many nested ${} references, e.g. at depth 2
+ * key.7=${key.7.ref.1}, key.7.ref.1=${key.7.ref.2} and key.7.ref.2=value.
+ */
+public class SyntheticConfigTree {
+
+    public static final int KEY_COUNT = 200;
+    private static final int TEMPLATES_PER_DIRECTORY = 50;
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor ";
+
+    private final File root;
+    private final File templates;
+    private final File filters;
+    private final File output;
+
+    private SyntheticConfigTree(final File root) {
+        this.root = root;
+        this.templates = new File(root, "templates");
+        this.filters = new File(root, "filters");
+        this.output = new File(root, "output");
+    }
+
+    /**
+     * @param templateCount      number of template files, spread over sub-directories
+     * @param filterCount        number of filter files, i.e. environments
+     * @param templateSize       approximate size of each template in bytes
+     * @param placeholdersPerKb  place-holders in every 1024 bytes of template text
+     * @param referenceDepth     nested ${} references used to define each filter value
+     */
+    public static SyntheticConfigTree create(final int templateCount, final int filterCount, final int templateSize,
+                                             final int placeholdersPerKb, final int referenceDepth) throws IOException {
+        final SyntheticConfigTree tree = new SyntheticConfigTree(Files.createTempDirectory("config-processor-benchmark").toFile());
+        final Random random = new Random(templateCount * 31 + templateSize);
+        for (int i = 0; i < templateCount; i++) {
+            final File directory = new File(tree.templates, "dir" + (i / TEMPLATES_PER_DIRECTORY));
+            FileUtils.writeStringToFile(new File(directory, "template" + i + ".properties"),
+                    createTemplate(random, templateSize, placeholdersPerKb), "UTF-8");
+        }
+        for (int i = 0; i < filterCount; i++) {
+            FileUtils.writeStringToFile(new File(tree.filters, "env" + (i % 4) + "/environment" + i + ".filter"),
+                    createFilter("environment" + i, referenceDepth), "ISO-8859-1");
+        }
+        return tree;
+    }
+
+    public static String createTemplate(final Random random, final int size, final int placeholdersPerKb) {
+        final StringBuilder template = new StringBuilder(size + 64);
+        final int placeholders = Math.max(0, (int) ((long) size * placeholdersPerKb / 1024));
+        final int gap = placeholders == 0 ? Integer.MAX_VALUE : Math.max(1, size / placeholders);
+        int nextPlaceholder = gap;
+        while (template.length() < size) {
+            if (template.length() >= nextPlaceholder) {
+                template.append("${key.").append(random.nextInt(KEY_COUNT)).append('}');
+                nextPlaceholder += gap;
+            } else {
+                final int start = random.nextInt(WORDS.length() / 2);
+                template.append(WORDS, start, WORDS.length());
+                if (random.nextInt(4) == 0) {
+                    template.append('\n');
+                }
+            }
+        }
+        return template.toString();
+    }
+
+    public static String createFilter(final String environment, final int referenceDepth) {
+        final StringBuilder filter = new StringBuilder();
+        for (final Map.Entry<String, String> property : createProperties(environment, referenceDepth).entrySet()) {
+            filter.append(property.getKey()).append('=').append(property.getValue()).append('\n');
+        }
+        return filter.toString();
+    }
+
+    /**
+     * Unresolved filter properties as they appear in the filter file.
+     */
+    public static Map<String, String> createProperties(final String environment, final int referenceDepth) {
+        final Map<String, String> properties = new HashMap<String, String>();
+        for (int key = 0; key < KEY_COUNT; key++) {
+            String name = "key." + key;
+            for (int depth = 1; depth <= referenceDepth; depth++) {
+                final String reference = "key." + key + ".ref." + depth;
+                properties.put(name, "${" + reference + "}");
+                name = reference;
+            }
+            properties.put(name, environment + ".value." + key);
+        }
+        return properties;
+    }
+
+    public File getTemplates() {
+        return templates;
+    }
+
+    public File getFilters() {
+        return filters;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+}
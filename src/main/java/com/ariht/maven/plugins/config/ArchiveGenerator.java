@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+/**
+ * Writes the config generated for each filter into its own zip archive, filter-sub-dir/filter-name.zip,
+ * and attaches the archives to the project.
+ */
+public class ArchiveGenerator {
+
+    private static final String EXTENSION = "zip";
+
+    private final Log log;
+    private final OutputWriter outputWriter;
+    private final File outputDirectory;
+    private final String encoding;
+    private final boolean logOutput;
+
+    public ArchiveGenerator(final Log log, final OutputWriter outputWriter, final File outputDirectory,
+                            final String encoding, final boolean logOutput) {
+        this.log = log;
+        this.outputWriter = outputWriter;
+        this.outputDirectory = outputDirectory;
+        this.encoding = encoding;
+        this.logOutput = logOutput;
+    }
+
+    /**
+     * filter-sub-dir/filter-name.zip, i.e. the filter.source without its leading '/'.
+     */
+    public static String getRelativePath(final FileInfo filter) {
+        return StringUtils.removeStart(FilterLoader.getFilterSource(filter), "/") + "." + EXTENSION;
+    }
+
+    public static Set<String> getRelativePaths(final List<FileInfo> filters) {
+        final Set<String> relativePaths = new HashSet<String>(filters.size() * 2);
+        for (final FileInfo filter : filters) {
+            relativePaths.add(getRelativePath(filter));
+        }
+        return relativePaths;
+    }
+
+    /**
+     * The filter.source with '/' as '-'.
+     */
+    public static String getClassifier(final FileInfo filter) {
+        return StringUtils.removeStart(FilterLoader.getFilterSource(filter), "/").replace("/", "-");
+    }
+
+    public File getArchiveFile(final FileInfo filter) {
+        return new File(outputDirectory, getRelativePath(filter)).getAbsoluteFile();
+    }
+
+    /**
+     * Write the archive of one filter from the results of its tasks, which are added in task order by the
+     * calling thread. Results rendered in memory are added as they are, others are read or substituted
+     * straight into their entry.
+     */
+    public void generate(final GenerationExecutor executor, final LoadedFilter filter, final List<? extends Callable<GeneratedConfig>> tasks,
+                         final GenerationStatistics statistics) throws Exception {
+        final File archiveFile = getArchiveFile(filter.getFileInfo());
+        Files.createDirectories(archiveFile.getParentFile().toPath());
+        final long[] bytesGenerated = new long[1];
+        final boolean written;
+        try (ConfigArchive archive = new ConfigArchive(outputWriter, archiveFile)) {
+            executor.execute(tasks, new GenerationExecutor.ResultHandler<GeneratedConfig>() {
+                public void handle(final GeneratedConfig generated) throws IOException {
+                    final long writeStart = System.nanoTime();
+                    if (generated.template.isVerbatim()) {
+                        try (InputStream in = new FileInputStream(generated.template.getFileInfo().getFile());
+                             OutputStream entry = archive.openEntry(generated.relativeOutputPath)) {
+                            generated.bytesGenerated = IOUtils.copyLarge(in, entry);
+                        }
+                    } else if (generated.template.isStreamed()) {
+                        final CountingOutputStream entry = new CountingOutputStream(archive.openEntry(generated.relativeOutputPath));
+                        try (Reader reader = new InputStreamReader(new FileInputStream(generated.template.getFileInfo().getFile()), Charset.defaultCharset());
+                             Writer writer = new BufferedWriter(new OutputStreamWriter(entry, Charset.forName(encoding)))) {
+                            new StreamingSubstitutor(generated.filter.getProperties()).substitute(reader, writer);
+                        }
+                        generated.bytesGenerated = entry.getByteCount();
+                    } else {
+                        archive.add(generated.relativeOutputPath, generated.output);
+                    }
+                    generated.writeNanos = System.nanoTime() - writeStart;
+                    bytesGenerated[0] += generated.bytesGenerated;
+                    if (log.isDebugEnabled()) {
+                        log.debug("Archiving : " + generated.relativeOutputPath);
+                    }
+                    generated.recordTimings(statistics);
+                }
+            });
+            final long commitStart = System.nanoTime();
+            written = archive.commit();
+            statistics.stageCompleted(GenerationStatistics.Stage.WRITE, System.nanoTime() - commitStart);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            statistics.fileGenerated(written);
+        }
+        statistics.bytesGenerated(bytesGenerated[0], written);
+        log.info("");
+        final String message = "Generating : " + archiveFile + " (" + tasks.size() + " files)" + (written ? "" : " (unchanged)");
+        if (logOutput) {
+            log.info(message);
+        } else if (log.isDebugEnabled()) {
+            log.debug(message);
+        }
+    }
+
+    /**
+     * Attach the archive of every filter given, including those left as they were by an incremental build,
+     * so they are installed and deployed with the project's other artifacts.
+     */
+    public void attach(final MavenProject project, final MavenProjectHelper projectHelper, final List<LoadedFilter> filters) {
+        for (final LoadedFilter filter : filters) {
+            final File archiveFile = getArchiveFile(filter.getFileInfo());
+            if (archiveFile.isFile()) {
+                projectHelper.attachArtifact(project, EXTENSION, getClassifier(filter.getFileInfo()), archiveFile);
+            }
+        }
+    }
+
+}
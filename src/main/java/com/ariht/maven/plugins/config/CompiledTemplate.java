@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.text.StrSubstitutor;
+
+/**
+ * Template already split into literal text and place-holder references by {@link TemplateCompiler},
+ * rendering is a single pass of appending segments and looked up values.
+ *
+ * Values that themselves contain place-holders are substituted recursively, and cyclic references
+ * fail, just as with {@link StrSubstitutor}. In the rare case where a value ending in '$' is directly
+ * followed by another place-holder, {@link StrSubstitutor} treats that '$' as an escape, so the
+ * template is handed to it instead to keep the output identical.
+ */
+public final class CompiledTemplate {
+
+    private final String source;
+    /** Literal text, or the raw ${key} text when the segment is a place-holder. */
+    private final String[] segments;
+    /** Place-holder key for each segment, null for literal text. */
+    private final String[] keys;
+    private final int literalLength;
+    private final int placeholderCount;
+    private final Set<String> referencedKeys;
+
+    CompiledTemplate(final String source, final String[] segments, final String[] keys) {
+        this.source = source;
+        this.segments = segments;
+        this.keys = keys;
+        int length = 0;
+        int count = 0;
+        final Set<String> distinctKeys = new LinkedHashSet<String>();
+        for (int i = 0; i < segments.length; i++) {
+            if (keys[i] == null) {
+                length += segments[i].length();
+            } else {
+                count++;
+                distinctKeys.add(keys[i]);
+            }
+        }
+        this.literalLength = length;
+        this.placeholderCount = count;
+        this.referencedKeys = Collections.unmodifiableSet(distinctKeys);
+    }
+
+    public String render(final Map<String, String> properties) {
+        final StringBuilder output = new StringBuilder(literalLength + 32 * placeholderCount);
+        if (appendTo(output, properties, null)) {
+            return output.toString();
+        }
+        return StrSubstitutor.replace(source, properties);
+    }
+
+    public int getPlaceholderCount() {
+        return placeholderCount;
+    }
+
+    /**
+     * Keys of the place-holders in the template, in the order they first appear.
+     */
+    public Set<String> getReferencedKeys() {
+        return referencedKeys;
+    }
+
+    /**
+     * Append rendered segments, returning false if the output could differ from {@link StrSubstitutor}.
+     */
+    private boolean appendTo(final StringBuilder output, final Map<String, String> properties, final List<String> priorKeys) {
+        boolean previousValueEndsWithEscape = false;
+        for (int i = 0; i < segments.length; i++) {
+            final String key = keys[i];
+            if (key == null) {
+                output.append(segments[i]);
+                previousValueEndsWithEscape = false;
+                continue;
+            }
+            if (previousValueEndsWithEscape) {
+                return false;
+            }
+            final String value = properties.get(key);
+            if (value == null) {
+                output.append(segments[i]);
+                continue;
+            }
+            if (value.indexOf(TemplateCompiler.PREFIX) < 0) {
+                output.append(value);
+            } else if (!appendValue(output, key, value, properties, priorKeys)) {
+                return false;
+            }
+            previousValueEndsWithEscape = value.length() > 0 && output.charAt(output.length() - 1) == TemplateCompiler.ESCAPE;
+        }
+        return true;
+    }
+
+    private boolean appendValue(final StringBuilder output, final String key, final String value,
+                                final Map<String, String> properties, final List<String> priorKeys) {
+        final List<String> keyChain = priorKeys == null ? new ArrayList<String>() : priorKeys;
+        if (keyChain.contains(key)) {
+            keyChain.add(key);
+            throw new IllegalStateException("Infinite loop in property interpolation of " + source + ": " + join(keyChain));
+        }
+        keyChain.add(key);
+        final boolean rendered = TemplateCompiler.compile(value).appendTo(output, properties, keyChain);
+        keyChain.remove(keyChain.size() - 1);
+        return rendered;
+    }
+
+    private static String join(final List<String> keyChain) {
+        final StringBuilder joined = new StringBuilder();
+        for (final String key : keyChain) {
+            if (joined.length() > 0) {
+                joined.append("->");
+            }
+            joined.append(key);
+        }
+        return joined.toString();
+    }
+
+}
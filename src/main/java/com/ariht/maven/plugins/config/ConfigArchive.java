@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * Zip archive of the config generated for one filter, written in a single sequential pass to a
+ * temporary file and then committed through {@link OutputWriter} so an identical archive is left
+ * untouched. Every entry has the same fixed timestamp so identical config gives an identical archive.
+ */
+public class ConfigArchive implements Closeable {
+
+    /** Earliest time a zip entry can hold, in local time as that is what zip entries store. */
+    private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.JANUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    private final OutputWriter outputWriter;
+    private final File archiveFile;
+    private final Path temporary;
+    private final ZipOutputStream zip;
+    private int entries;
+    private boolean committed;
+
+    public ConfigArchive(final OutputWriter outputWriter, final File archiveFile) throws IOException {
+        this.outputWriter = outputWriter;
+        this.archiveFile = archiveFile;
+        this.temporary = outputWriter.createTemporaryFile(archiveFile);
+        this.zip = new ZipOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+    }
+
+    public File getArchiveFile() {
+        return archiveFile;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public void add(final String name, final byte[] content) throws IOException {
+        zip.putNextEntry(newEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * Start an entry and return a stream for its content, valid until the next entry is started.
+     * Closing the stream does not close the archive.
+     */
+    public OutputStream openEntry(final String name) throws IOException {
+        zip.putNextEntry(newEntry(name));
+        return new CloseShieldOutputStream(zip);
+    }
+
+    private ZipEntry newEntry(final String name) {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        entries++;
+        return entry;
+    }
+
+    /**
+     * Finish the archive and move it into place unless the existing archive is identical.
+     *
+     * @return true if the archive file was written
+     */
+    public boolean commit() throws IOException {
+        zip.close();
+        committed = true;
+        return outputWriter.commit(temporary, archiveFile);
+    }
+
+    /**
+     * Discards the archive if it was never committed.
+     */
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                zip.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+}
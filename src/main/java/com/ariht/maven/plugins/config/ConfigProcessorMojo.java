@@ -17,24 +17,45 @@
 package com.ariht.maven.plugins.config;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
-import org.apache.commons.configuration.ConfigurationConverter;
-import org.apache.commons.configuration.ConfigurationException;
-import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.text.StrSubstitutor;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
 
 /**
  * Generates config and scripts for multiple target environments using
@@ -57,8 +78,150 @@ public class  ConfigProcessorMojo extends AbstractMojo {
     protected List<String> templatesToIgnore;
     @Parameter
     protected List<String> filtersToIgnore;
+    /**
+     * Number of threads to generate config with, either an absolute count or a multiple of
+     * the available processors using Maven's -T syntax, e.g. "1C".
+     */
+    @Parameter (property = "config.threads", defaultValue = "1")
+    protected String threads = "1";
+    /**
+     * Substitute place-holders with StrSubstitutor on every render instead of compiling each
+     * template once, e.g. to compare output between the two.
+     */
+    @Parameter (property = "config.legacySubstitution", defaultValue = "false")
+    protected boolean legacySubstitution;
+    /**
+     * Only regenerate outputs whose template, filter or plugin configuration changed since the last
+     * incremental run, instead of rendering every template for every filter.
+     */
+    @Parameter (property = "config.incremental", defaultValue = "false")
+    protected boolean incremental;
+    /**
+     * Templates larger than this many bytes are never held in memory, instead they are substituted
+     * while being copied from the template to the output file.
+     */
+    @Parameter (property = "config.streamingThreshold", defaultValue = "16777216")
+    protected long streamingThreshold = 16 * 1024 * 1024;
+    /**
+     * Layer filters: a filter named baseFilterName provides defaults for every filter in its directory
+     * and below, and any filter may build on others listed in an "include" key. Keys in a filter
+     * override those of the layers beneath it.
+     */
+    @Parameter (property = "config.filterLayering", defaultValue = "false")
+    protected boolean filterLayering;
+    /**
+     * Name, without extension, of the filters that provide defaults when filterLayering is enabled.
+     * Such filters are not themselves generated as an environment.
+     */
+    @Parameter (property = "config.baseFilterName", defaultValue = "common")
+    protected String baseFilterName = "common";
+    /**
+     * If set, stage timings, throughput and the slowest templates and filters are also written to
+     * this file as JSON, e.g. ${project.build.directory}/config-processor-metrics.json
+     */
+    @Parameter (property = "config.metricsFile")
+    protected String metricsFile;
+    /**
+     * Number of slowest templates and of slowest filters to report after generating config.
+     */
+    @Parameter (property = "config.slowestCount", defaultValue = "5")
+    protected int slowestCount = 5;
+    /**
+     * Only generate config for filters whose filter.source, without the leading '/', matches one of
+     * these comma separated globs or "regex:" patterns, e.g. "dev,qa/*". Config previously generated
+     * for other filters is left as it is.
+     */
+    @Parameter (property = "config.environments")
+    protected String environments;
+    /**
+     * Only generate config from templates whose path relative to templatesBasePath matches one of these
+     * comma separated globs or "regex:" patterns, e.g. "properties/*". Config previously generated from
+     * other templates is left as it is.
+     */
+    @Parameter (property = "config.templates")
+    protected String templatesToGenerate;
+    /**
+     * "directory" writes each generated file into outputBasePath, "zip" instead writes the config
+     * for each filter into one archive, outputBasePath/filter-sub-dir/filter-name.zip, with the
+     * same paths inside it as the directory layout.
+     */
+    @Parameter (property = "config.outputFormat", defaultValue = "directory")
+    protected String outputFormat = OUTPUT_FORMAT_DIRECTORY;
+    /**
+     * Attach each zip archive to the project, classified by its filter.source with '/' as '-',
+     * so they are installed and deployed with the project's other artifacts.
+     */
+    @Parameter (property = "config.attachArchives", defaultValue = "false")
+    protected boolean attachArchives;
+
+    /**
+     * Estimated bytes of parsed filters and compiled templates to keep between executions in the
+     * same JVM, e.g. across the modules of a reactor, with least recently used entries evicted
+     * first. Zero stops this execution using the cache.
+     *
+     * The cache is shared by the whole JVM and holds up to the largest size any execution has asked
+     * for, so a module configured with a smaller size or zero never evicts entries other modules use.
+     */
+    @Parameter (property = "config.cacheSize", defaultValue = "67108864")
+    protected long cacheSize = 64 * 1024 * 1024;
+    /**
+     * What to do, before anything is generated, when a template references keys that a filter it is
+     * generated with does not define: "ignore", "warn" or "fail".
+     */
+    @Parameter (property = "config.unresolvedPlaceholders", defaultValue = "warn")
+    protected String unresolvedPlaceholders = "warn";
+    /**
+     * If set, which templates reference each place-holder key, and which keys are never referenced,
+     * are written to this file as JSON.
+     */
+    @Parameter (property = "config.placeholderReport")
+    protected String placeholderReport;
+    /**
+     * Print the plan, i.e. each output that would be generated, without writing or deleting anything,
+     * the placeholder report included.
+     */
+    @Parameter (property = "config.dryRun", defaultValue = "false")
+    protected boolean dryRun;
+    /**
+     * Comma separated extensions of templates that are always binary and copied as they are. Files with
+     * other extensions are also copied as they are when a NUL byte near their start shows they are binary.
+     */
+    @Parameter (property = "config.binaryExtensions",
+                defaultValue = "jar,war,ear,zip,gz,tgz,bz2,7z,class,so,dll,exe,jks,jceks,keystore,p12,pfx,der,png,jpg,jpeg,gif,ico,bmp,pdf")
+    protected String binaryExtensions = ContentClassifier.DEFAULT_BINARY_EXTENSIONS;
+    /**
+     * Store each distinct generated file once, making outputs with the same content hard links to it,
+     * e.g. config that is the same for many environments. Only for the directory output format: the
+     * zip format writes one archive per filter and zip entries cannot be linked, so it is rejected.
+     *
+     * Incremental runs also check the outputs they leave as they are, so regenerated outputs can be
+     * linked to them.
+     */
+    @Parameter (property = "config.deduplicate", defaultValue = "false")
+    protected boolean deduplicate;
+    /**
+     * Bytes of rendered output to keep during an execution so a template is rendered once for all the
+     * filters that have the same values for the keys it references. Zero disables reuse.
+     */
+    @Parameter (property = "config.renderMemoSize", defaultValue = "16777216")
+    protected long renderMemoSize = 16 * 1024 * 1024;
+
+    @Parameter (defaultValue = "${project}", readonly = true)
+    protected MavenProject project;
+    @Component
+    protected MavenProjectHelper projectHelper;
+
+    protected static final String PATH_SEPARATOR = "/";
+    private static final String OUTPUT_FORMAT_DIRECTORY = "directory";
+    private static final String OUTPUT_FORMAT_ZIP = "zip";
+
+    /**
+     * What is done about unresolved place-holders, parsed from unresolvedPlaceholders.
+     */
+    private enum UnresolvedPlaceholders { IGNORE, WARN, FAIL }
 
-    private static final String PATH_SEPARATOR = "/";
+    private final OutputWriter outputWriter = new OutputWriter();
+    private UnresolvedPlaceholders unresolvedAction = UnresolvedPlaceholders.WARN;
 
     /**
      * For properties substituted from every filter, create config based on each template.
@@ -67,97 +230,637 @@ public class  ConfigProcessorMojo extends AbstractMojo {
         getLog().warn("This plugin has moved to new artifactId: config-generation-maven-plugin");
         try {
             logConfigurationParameters();
-            deleteOutputDirectory();
             processTemplatesAndGenerateConfig();
         } catch (Exception e) {
             throw new MojoFailureException(e.getMessage(), e);
         }
     }
 
-    private void processTemplatesAndGenerateConfig() throws Exception {
-        final List<FileInfo> filters = new DirectoryReader(getLog(), PATH_SEPARATOR, filtersToIgnore).readFiles(filtersBasePath);
-        final List<FileInfo> templates = new DirectoryReader(getLog(), PATH_SEPARATOR, templatesToIgnore).readFiles(templatesBasePath);
+    protected void processTemplatesAndGenerateConfig() throws Exception {
+        validateParameters();
+        final GenerationStatistics statistics = new GenerationStatistics();
+        long stageStart = System.nanoTime();
+        final DirectoryReader filtersReader = new DirectoryReader(getLog(), PATH_SEPARATOR, filtersToIgnore);
+        final List<FileInfo> filters = filtersReader.readFiles(filtersBasePath);
+        final DirectoryReader templatesReader = new DirectoryReader(getLog(), PATH_SEPARATOR, templatesToIgnore);
+        final List<FileInfo> templates = templatesReader.readFiles(templatesBasePath);
+        statistics.directoriesScanned(filtersReader.getDirectoriesScanned() + templatesReader.getDirectoriesScanned());
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.SCAN, stageStart);
+        final ResolutionCache cache = getResolutionCache();
+        final FilterLoader filterLoader = new FilterLoader(getLog(), encoding, filterLayering ? baseFilterName : null, cache, statistics);
+        final List<FileInfo> environmentFilters = getEnvironmentFilters(filters, filterLoader);
+        final List<FileInfo> selectedTemplates = selectTemplates(templates);
+        final List<LoadedFilter> loadedFilters = filterLoader.load(selectFilters(filters, filterLoader));
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.FILTERS, stageStart);
+        final List<LoadedTemplate> loadedTemplates = loadTemplates(selectedTemplates, cache, statistics);
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.TEMPLATES, stageStart);
+        final IncrementalState state = generate(templates, environmentFilters, loadedTemplates, loadedFilters, null, null, statistics, stageStart);
+        if (state != null) {
+            generated(templates, filters, loadedTemplates, loadedFilters, state);
+        }
+    }
+
+    /**
+     * Called once config has been generated incrementally from every template and filter, for goals
+     * that keep them in memory to generate again from.
+     *
+     * @param filters every filter read, including base filters and those not selected
+     */
+    protected void generated(final List<FileInfo> templates, final List<FileInfo> filters, final List<LoadedTemplate> loadedTemplates,
+                             final List<LoadedFilter> loadedFilters, final IncrementalState state) throws IOException {
+    }
+
+    /**
+     * Render and write the config of each pair of loaded template and filter whose output is out of date,
+     * deleting outputs that no pair generates any more.
+     *
+     * @param templates          every template read, selected or not
+     * @param environmentFilters every filter config is generated for, selected or not
+     * @param retainedState      fingerprints the outputs were last generated with as held in memory, or null
+     *                           to read them from the state file when incremental
+     * @param changedInputs      the loaded templates and filters that may have changed since the retained
+     *                           state, pairs of others are up to date - or null if any may have
+     * @return fingerprints the outputs are now generated with, or null unless incremental
+     */
+    protected IncrementalState generate(final List<FileInfo> templates, final List<FileInfo> environmentFilters,
+                                        final List<LoadedTemplate> loadedTemplates, final List<LoadedFilter> loadedFilters,
+                                        final IncrementalState retainedState, final Set<?> changedInputs,
+                                        final GenerationStatistics statistics, long stageStart) throws Exception {
         getLog().debug("Outputs will go into : " + outputBasePath);
-        for (final FileInfo filter : filters) {
-            getLog().info("");
-            for (final FileInfo template : templates) {
-                generateConfig(template, filter, outputBasePath);
+        final GenerationExecutor executor = new GenerationExecutor(GenerationExecutor.parseThreadCount(threads));
+        if (executor.getThreads() > 1) {
+            getLog().info("Generating config using " + executor.getThreads() + " threads");
+        }
+        final OutputPlan plan = new OutputPlan(outputBasePath);
+        final List<GenerateConfigTask> tasks = createGenerationTasks(loadedTemplates, loadedFilters, plan);
+        final PlaceholderReport report = StringUtils.isBlank(placeholderReport) ? null : new PlaceholderReport(getLog(), placeholderReport);
+        if (report != null && dryRun) {
+            getLog().info("Would write placeholder report : " + report.getReportFile());
+        } else if (report != null) {
+            report.write(loadedTemplates, loadedFilters);
+        }
+        checkUnresolvedPlaceholders(tasks, changedInputs);
+        // Outputs of every pair, selected or not, none of which are stale
+        final Set<String> allOutputs = getRelativeOutputPaths(templates, environmentFilters, plan);
+        final Set<String> outputsToKeep = isArchiveOutput() ? ArchiveGenerator.getRelativePaths(environmentFilters) : allOutputs;
+        final Set<String> filesToKeep = report == null ? outputsToKeep : report.keep(outputsToKeep, plan.getOutputDirectory());
+        final OutputPruner outputPruner = new OutputPruner(getLog(), plan.getOutputDirectory().toFile());
+        final IncrementalState previousState = retainedState != null ? retainedState : incremental ? loadIncrementalState() : null;
+        if (retainedState != null && !dryRun) {
+            // Until this run completes the outputs no longer match the recorded state
+            FileUtils.deleteQuietly(new File(outputBasePath, IncrementalState.STATE_FILENAME));
+        }
+        final List<GenerateConfigTask> tasksToRun = previousState != null
+                ? selectChangedTasks(tasks, changedInputs, allOutputs, previousState, outputPruner, statistics) : tasks;
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.PLAN, stageStart);
+        if (dryRun) {
+            logPlan(tasks, tasksToRun, plan);
+            return null;
+        }
+        final ArchiveGenerator archiveGenerator = isArchiveOutput()
+                ? new ArchiveGenerator(getLog(), outputWriter, new File(outputBasePath), encoding, logOutput) : null;
+        if (archiveGenerator != null) {
+            generateArchives(archiveGenerator, executor, tasksToRun, statistics);
+        } else {
+            stageStart = generateFiles(executor, tasks, tasksToRun, statistics, stageStart);
+        }
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.GENERATE, stageStart);
+        // Archives are few, so check them all rather than relying on incremental state
+        if (previousState == null || isArchiveOutput()) {
+            statistics.outputsDeleted(outputPruner.deleteAllExcept(filesToKeep));
+        }
+        stageCompleted(statistics, GenerationStatistics.Stage.PRUNE, stageStart);
+        if (archiveGenerator != null && attachArchives) {
+            archiveGenerator.attach(project, projectHelper, loadedFilters);
+        }
+        final IncrementalState state = incremental ? saveIncrementalState(tasks, changedInputs, allOutputs, previousState) : null;
+        statistics.finished();
+        logStatistics(statistics);
+        return state;
+    }
+
+    /**
+     * Dry run: log what would be generated, leaving the output directory and incremental state as they are.
+     */
+    private void logPlan(final List<GenerateConfigTask> tasks, final List<GenerateConfigTask> tasksToRun, final OutputPlan plan) {
+        LoadedFilter currentFilter = null;
+        for (final GenerateConfigTask task : tasksToRun) {
+            if (task.filter != currentFilter) {
+                currentFilter = task.filter;
+                getLog().info("");
+                if (isArchiveOutput()) {
+                    getLog().info("Would generate : " + plan.getOutputDirectory().resolve(ArchiveGenerator.getRelativePath(task.filter.getFileInfo())));
+                }
             }
+            getLog().info((isArchiveOutput() ? "    " + task.relativeOutputPath : "Would generate : " + task.outputFile)
+                    + " from " + task.template.getFileInfo().getRelativePath() + " with " + task.filter.getFileInfo().getRelativePath());
         }
+        getLog().info("");
+        getLog().info("Dry run: " + tasksToRun.size() + " of " + tasks.size() + " outputs would be generated, nothing was written");
     }
 
     /**
-     * Read properties from filter file and substitute template place-holders.
-     * Write results to output path with same relative path as input filters.
-     *
-     * Typical output is to ...target/filter-sub-dir/template-dir/template.name
+     * Write the files of the tasks to run in the directory output format, returning the start time of
+     * the next stage.
+     */
+    private long generateFiles(final GenerationExecutor executor, final List<GenerateConfigTask> tasks, final List<GenerateConfigTask> tasksToRun,
+                               final GenerationStatistics statistics, final long stageStart) throws Exception {
+        final List<Path> directories = new ArrayList<Path>();
+        for (final GenerateConfigTask task : tasksToRun) {
+            directories.add(task.outputDirectory);
+        }
+        getLog().debug("Creating output directories : " + OutputPlan.createDirectories(directories));
+        final long generateStart = stageCompleted(statistics, GenerationStatistics.Stage.MKDIR, stageStart);
+        final OutputDeduplicator deduplicator = deduplicate ? new OutputDeduplicator(getLog()) : null;
+        if (deduplicator != null && tasksToRun.size() < tasks.size()) {
+            addUpToDateOutputs(deduplicator, tasks, tasksToRun, statistics);
+        }
+        executor.execute(tasksToRun, new GenerationExecutor.ResultHandler<GeneratedConfig>() {
+            private LoadedFilter currentFilter;
+
+            public void handle(final GeneratedConfig generated) throws IOException {
+                if (generated.filter != currentFilter) {
+                    getLog().info("");
+                    currentFilter = generated.filter;
+                }
+                logGenerated("Generating : " + generated.outputFile + (generated.written ? "" : " (unchanged)"));
+                statistics.fileGenerated(generated.written);
+                statistics.bytesGenerated(generated.bytesGenerated, generated.written);
+                generated.recordTimings(statistics);
+                if (deduplicator != null) {
+                    statistics.outputDeduplicated(deduplicator.add(generated.outputFile, generated.contentHash), generated.bytesGenerated);
+                }
+            }
+        });
+        return generateStart;
+    }
+
+    /**
+     * Deduplicate the outputs an incremental run leaves as they are before those it regenerates, so the
+     * regenerated outputs can be linked to them and the statistics cover every output, not just this run's.
      */
-    private void generateConfig(final FileInfo template, final FileInfo filter, final String outputBasePath) throws IOException, ConfigurationException {
-        final String outputDirectory = createOutputDirectory(template, filter, outputBasePath);
-        final String templateFilename = template.getFile().getName();
-        final String outputFilename = FilenameUtils.separatorsToSystem(outputDirectory + templateFilename);
+    private void addUpToDateOutputs(final OutputDeduplicator deduplicator, final List<GenerateConfigTask> tasks,
+                                    final List<GenerateConfigTask> tasksToRun, final GenerationStatistics statistics) throws IOException {
+        final Set<GenerateConfigTask> running = new HashSet<GenerateConfigTask>(tasksToRun);
+        for (final GenerateConfigTask task : tasks) {
+            if (!running.contains(task) && Files.isRegularFile(task.outputFile)) {
+                statistics.outputDeduplicated(deduplicator.add(task.outputFile, null), Files.size(task.outputFile));
+            }
+        }
+    }
+
+    /**
+     * Write the config for each filter into its own archive, rendering one filter at a time so at
+     * most one filter's rendered config is held in memory while its archive is written.
+     */
+    private void generateArchives(final ArchiveGenerator archiveGenerator, final GenerationExecutor executor,
+                                  final List<GenerateConfigTask> tasks, final GenerationStatistics statistics) throws Exception {
+        int start = 0;
+        while (start < tasks.size()) {
+            final LoadedFilter filter = tasks.get(start).filter;
+            int end = start;
+            while (end < tasks.size() && tasks.get(end).filter == filter) {
+                end++;
+            }
+            archiveGenerator.generate(executor, filter, tasks.subList(start, end), statistics);
+            start = end;
+        }
+    }
+
+    private void logGenerated(final String message) {
         if (logOutput) {
-            getLog().info("Generating : " + String.valueOf(outputFilename));
+            getLog().info(message);
         } else if (getLog().isDebugEnabled()) {
-            getLog().debug("Generating : " + String.valueOf(outputFilename));
+            getLog().debug(message);
         }
-        getLog().debug("Applying filter : " + filter.toString() + " to template : " + template.toString());
-        final String rawTemplate = FileUtils.readFileToString(template.getFile());
-        final Properties properties = readFilterIntoProperties(filter);
-        final String processedTemplate = StrSubstitutor.replace(rawTemplate, properties);
+    }
 
-        if (StringUtils.isNotBlank(encoding)) {
-            FileUtils.writeStringToFile(new File(outputFilename), processedTemplate, encoding);
-        } else {
-            FileUtils.writeStringToFile(new File(outputFilename), processedTemplate);
+    private boolean isArchiveOutput() {
+        return OUTPUT_FORMAT_ZIP.equalsIgnoreCase(StringUtils.trim(outputFormat));
+    }
+
+    private void validateParameters() throws MojoExecutionException {
+        try {
+            unresolvedAction = UnresolvedPlaceholders.valueOf(StringUtils.trimToEmpty(unresolvedPlaceholders).toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Unknown unresolvedPlaceholders '" + unresolvedPlaceholders
+                    + "', expected ignore, warn or fail");
+        }
+        if (!isArchiveOutput() && !OUTPUT_FORMAT_DIRECTORY.equalsIgnoreCase(StringUtils.trim(outputFormat))) {
+            throw new MojoExecutionException("Unknown outputFormat '" + outputFormat + "', expected "
+                    + OUTPUT_FORMAT_DIRECTORY + " or " + OUTPUT_FORMAT_ZIP);
+        }
+        if (isArchiveOutput() && !new PathSelector(templatesToGenerate).isSelectingAll()) {
+            throw new MojoExecutionException("Templates cannot be selected with outputFormat " + OUTPUT_FORMAT_ZIP
+                    + ", each archive always holds the config from every template");
+        }
+        if (isArchiveOutput() && deduplicate) {
+            throw new MojoExecutionException("Outputs cannot be deduplicated with outputFormat " + OUTPUT_FORMAT_ZIP
+                    + ", there is one archive per filter with nothing shared between them");
         }
     }
 
     /**
-     * Filter files contain the properties we wish to substitute in templates.
-     *
-     * Uses Apache Commons Configuration to load filters.
+     * Record the time since the stage started, returning the start time of the next stage.
+     */
+    protected static long stageCompleted(final GenerationStatistics statistics, final GenerationStatistics.Stage stage, final long stageStart) {
+        final long now = System.nanoTime();
+        statistics.stageCompleted(stage, now - stageStart);
+        return now;
+    }
+
+    private void logStatistics(final GenerationStatistics statistics) throws IOException {
+        getLog().info("");
+        getLog().info(statistics.toString());
+        for (final String line : statistics.getTimingSummary(slowestCount)) {
+            getLog().info(line);
+        }
+        if (StringUtils.isNotBlank(metricsFile)) {
+            getLog().debug("Writing metrics to : " + metricsFile);
+            statistics.writeJson(new File(metricsFile), slowestCount);
+        }
+    }
+
+    /**
+     * Find every pair that would leave raw ${} place-holders in its output before rendering any of them.
      */
-    private Properties readFilterIntoProperties(final FileInfo filter) throws ConfigurationException {
-        final PropertiesConfiguration config = new PropertiesConfiguration(filter.getFile());
-        config.setEncoding(encoding);
-        // Add one more property:   filter.source=/relative/sub/dir/filenameNoExtension
-        final String filterSource = filter.getRelativeSubDirectory() + filter.getNameWithoutExtension();
-        config.setProperty("filter.source", FilenameUtils.separatorsToUnix(filterSource));
-        return ConfigurationConverter.getProperties(config);
+    private void checkUnresolvedPlaceholders(final List<GenerateConfigTask> tasks, final Set<?> changedInputs) throws MojoExecutionException {
+        if (unresolvedAction == UnresolvedPlaceholders.IGNORE) {
+            return;
+        }
+        final boolean fail = unresolvedAction == UnresolvedPlaceholders.FAIL;
+        int unresolvedPairs = 0;
+        for (final GenerateConfigTask task : tasks) {
+            if (!isAffected(task, changedInputs)) {
+                continue;
+            }
+            final Set<String> unresolved = PlaceholderIndex.getUnresolvedKeys(task.template, task.filter);
+            if (unresolved != null && !unresolved.isEmpty()) {
+                final String message = "Unresolved place-holders " + unresolved + " in " + task;
+                if (fail) {
+                    getLog().error(message);
+                } else {
+                    getLog().warn(message);
+                }
+                unresolvedPairs++;
+            }
+        }
+        if (fail && unresolvedPairs > 0) {
+            throw new MojoExecutionException(unresolvedPairs + " filter and template pairs have unresolved place-holders");
+        }
     }
 
     /**
-     * Prepare output directory: base-path/filter-sub-dir/template-dir/template.name
+     * Filters that config is generated for, i.e. all except base filters, whether selected or not.
      */
-    private String createOutputDirectory(final FileInfo template, final FileInfo filter, final String outputBasePath) throws IOException {
-        final String outputDirectory = getOutputPath(template, filter, outputBasePath);
-        final File outputDir = new File(outputDirectory);
-        if (!outputDir.exists()) {
-            getLog().debug("Creating : " + outputDir);
-            FileUtils.forceMkdir(outputDir);
+    private List<FileInfo> getEnvironmentFilters(final List<FileInfo> filters, final FilterLoader filterLoader) {
+        final List<FileInfo> environmentFilters = new ArrayList<FileInfo>(filters.size());
+        for (final FileInfo filter : filters) {
+            if (!filterLoader.isBaseFilter(filter)) {
+                environmentFilters.add(filter);
+            }
         }
-        return FilenameUtils.normalize(outputDirectory);
+        return environmentFilters;
     }
 
     /**
-     * Concatenate together the filter's directory with the template's - 'deploy' templates just go into the
-     * base path so only have the filter (i.e. the environment they are intended for).
+     * Filters to load: the selected environments plus every base filter they might be layered on.
      */
-    private String getOutputPath(final FileInfo template, final FileInfo filter, final String outputBasePath) {
-        final String outputPath = outputBasePath + PATH_SEPARATOR
-                                + filter.getRelativeSubDirectory()
-                                + filter.getNameWithoutExtension() + PATH_SEPARATOR
-                                + template.getRelativeSubDirectory() + PATH_SEPARATOR;
-        return FilenameUtils.normalize(outputPath);
+    private List<FileInfo> selectFilters(final List<FileInfo> filters, final FilterLoader filterLoader) {
+        final PathSelector selector = new PathSelector(environments);
+        if (selector.isSelectingAll()) {
+            return filters;
+        }
+        final List<FileInfo> selectedFilters = new ArrayList<FileInfo>(filters.size());
+        int selectedEnvironments = 0;
+        for (final FileInfo filter : filters) {
+            if (filterLoader.isBaseFilter(filter)) {
+                selectedFilters.add(filter);
+            } else if (selector.matches(FilterLoader.getFilterSource(filter))) {
+                selectedFilters.add(filter);
+                selectedEnvironments++;
+            }
+        }
+        getLog().info("Selected " + selectedEnvironments + " environments matching '" + selector + "'");
+        return selectedFilters;
     }
 
-    private void deleteOutputDirectory() throws IOException {
+    private List<FileInfo> selectTemplates(final List<FileInfo> templates) {
+        final PathSelector selector = new PathSelector(templatesToGenerate);
+        if (selector.isSelectingAll()) {
+            return templates;
+        }
+        final List<FileInfo> selectedTemplates = new ArrayList<FileInfo>(templates.size());
+        for (final FileInfo template : templates) {
+            if (selector.matches(template.getRelativePath())) {
+                selectedTemplates.add(template);
+            }
+        }
+        getLog().info("Selected " + selectedTemplates.size() + " of " + templates.size() + " templates matching '" + selector + "'");
+        return selectedTemplates;
+    }
+
+    /**
+     * One task per filter and template pair, in filter then template order, with its output paths
+     * taken from the plan. Each output file must belong to exactly one pair so tasks never write to
+     * the same file. The tasks share one render memo for this execution.
+     */
+    private List<GenerateConfigTask> createGenerationTasks(final List<LoadedTemplate> templates, final List<LoadedFilter> filters,
+                                                           final OutputPlan plan) throws MojoExecutionException {
+        final RenderMemo renderMemo = renderMemoSize > 0 ? new RenderMemo(renderMemoSize) : null;
+        final List<GenerateConfigTask> tasks = new ArrayList<GenerateConfigTask>(templates.size() * filters.size());
+        final Map<Path, GenerateConfigTask> tasksByOutput = new HashMap<Path, GenerateConfigTask>();
+        for (final LoadedFilter filter : filters) {
+            for (final LoadedTemplate template : templates) {
+                final String relativeOutputDirectory = plan.getRelativeDirectory(template.getFileInfo(), filter.getFileInfo());
+                final Path outputDirectory = plan.getDirectory(relativeOutputDirectory);
+                final String filename = template.getFileInfo().getFile().getName();
+                final GenerateConfigTask task = new GenerateConfigTask(template, filter, outputDirectory,
+                        outputDirectory.resolve(filename), relativeOutputDirectory + filename, renderMemo);
+                final GenerateConfigTask clash = tasksByOutput.put(task.outputFile, task);
+                if (clash != null) {
+                    throw new MojoExecutionException("Both " + clash + " and " + task + " would generate " + task.outputFile);
+                }
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Previous state to build incrementally from, or null if everything has to be regenerated.
+     */
+    private IncrementalState loadIncrementalState() throws IOException {
+        final File stateFile = new File(outputBasePath, IncrementalState.STATE_FILENAME);
+        final IncrementalState previousState = IncrementalState.load(stateFile, incrementalConfigurationHash());
+        if (previousState == null) {
+            getLog().info("No usable incremental state found, regenerating all config");
+        } else {
+            if (!dryRun) {
+                // Until this run completes the outputs no longer match the recorded state
+                FileUtils.forceDelete(stateFile);
+            }
+        }
+        return previousState;
+    }
+
+    /**
+     * Work out which tasks have inputs that changed since the previous incremental run and delete
+     * outputs whose template or filter has gone.
+     */
+    private List<GenerateConfigTask> selectChangedTasks(final List<GenerateConfigTask> tasks, final Set<?> changedInputs, final Set<String> allOutputs,
+                                                        final IncrementalState previousState, final OutputPruner outputPruner,
+                                                        final GenerationStatistics statistics) throws IOException {
+        final List<GenerateConfigTask> changedTasks = new ArrayList<GenerateConfigTask>();
+        // An archive is rewritten as a whole, so all of a filter's config is regenerated if any of it changed
+        final Set<LoadedFilter> changedFilters = new HashSet<LoadedFilter>();
+        for (final GenerateConfigTask task : tasks) {
+            if (isAffected(task, changedInputs) && !isUpToDate(task, previousState)) {
+                changedFilters.add(task.filter);
+            }
+        }
+        for (final GenerateConfigTask task : tasks) {
+            if (isArchiveOutput() ? changedFilters.contains(task.filter) : isAffected(task, changedInputs) && !isUpToDate(task, previousState)) {
+                changedTasks.add(task);
+            } else {
+                statistics.fileUpToDate();
+            }
+        }
+        for (final String previousOutput : previousState.getOutputs()) {
+            if (!isArchiveOutput() && !dryRun && !allOutputs.contains(previousOutput)) {
+                outputPruner.delete(previousOutput);
+                statistics.outputsDeleted(1);
+            }
+        }
+        getLog().info("Incremental build: " + changedTasks.size() + " of " + tasks.size() + " outputs have changed inputs");
+        return changedTasks;
+    }
+
+    /**
+     * False only if neither the template nor the filter of the task can have changed.
+     */
+    private static boolean isAffected(final GenerateConfigTask task, final Set<?> changedInputs) {
+        return changedInputs == null || changedInputs.contains(task.template) || changedInputs.contains(task.filter);
+    }
+
+    private boolean isUpToDate(final GenerateConfigTask task, final IncrementalState previousState) {
+        return task.getFingerprint().equals(previousState.getFingerprint(task.relativeOutputPath)) && isOutputPresent(task);
+    }
+
+    private boolean isOutputPresent(final GenerateConfigTask task) {
+        if (isArchiveOutput()) {
+            return new File(outputBasePath, ArchiveGenerator.getRelativePath(task.filter.getFileInfo())).isFile();
+        }
+        return Files.isRegularFile(task.outputFile);
+    }
+
+    private Set<String> getRelativeOutputPaths(final List<FileInfo> templates, final List<FileInfo> filters, final OutputPlan plan) {
+        final Set<String> relativeOutputPaths = new HashSet<String>(templates.size() * filters.size() * 2);
+        for (final FileInfo filter : filters) {
+            for (final FileInfo template : templates) {
+                relativeOutputPaths.add(plan.getRelativePath(template, filter));
+            }
+        }
+        return relativeOutputPaths;
+    }
+
+    /**
+     * Outputs that were not selected this time, or whose inputs cannot have changed, keep the fingerprint
+     * they were last generated with.
+     */
+    private IncrementalState saveIncrementalState(final List<GenerateConfigTask> tasks, final Set<?> changedInputs, final Set<String> allOutputs,
+                                                  final IncrementalState previousState) throws IOException {
+        final IncrementalState state = new IncrementalState(incrementalConfigurationHash());
+        if (previousState != null) {
+            for (final String previousOutput : previousState.getOutputs()) {
+                if (allOutputs.contains(previousOutput)) {
+                    state.put(previousOutput, previousState.getFingerprint(previousOutput));
+                }
+            }
+        }
+        for (final GenerateConfigTask task : tasks) {
+            if (isAffected(task, changedInputs) || state.getFingerprint(task.relativeOutputPath) == null) {
+                state.put(task.relativeOutputPath, task.getFingerprint());
+            }
+        }
         final File outputDir = new File(outputBasePath);
-        if (outputDir.exists()) {
-            getLog().debug("Deleting : " + outputDir);
-            FileUtils.forceDelete(outputDir);
+        Files.createDirectories(outputDir.toPath());
+        state.save(new File(outputDir, IncrementalState.STATE_FILENAME));
+        return state;
+    }
+
+    /**
+     * Everything other than template and filter content that changes what gets generated.
+     */
+    private String incrementalConfigurationHash() {
+        return Digests.sha256Hex(encoding, templatesBasePath, filtersBasePath, String.valueOf(templatesToIgnore),
+                String.valueOf(filtersToIgnore), String.valueOf(legacySubstitution),
+                String.valueOf(filterLayering), baseFilterName, String.valueOf(isArchiveOutput()), binaryExtensions);
+    }
+
+    /**
+     * The JVM wide cache, grown to the size configured for this execution if that is larger, or null
+     * if this execution does not use it.
+     */
+    protected ResolutionCache getResolutionCache() {
+        if (cacheSize <= 0) {
+            return null;
         }
+        final ResolutionCache cache = ResolutionCache.getInstance();
+        cache.ensureMaximumSize(cacheSize);
+        return cache;
+    }
+
+    /**
+     * Read and compile every template once so the generation loop never goes back to disk for them.
+     */
+    protected List<LoadedTemplate> loadTemplates(final List<FileInfo> templates, final ResolutionCache cache,
+                                               final GenerationStatistics statistics) throws IOException {
+        final List<LoadedTemplate> loadedTemplates = new ArrayList<LoadedTemplate>(templates.size());
+        final ContentClassifier contentClassifier = new ContentClassifier(binaryExtensions);
+        for (final FileInfo template : templates) {
+            final long startNanos = System.nanoTime();
+            final boolean streamed = template.getFile().length() > streamingThreshold;
+            final ResolutionCache.Key key = cache == null ? null : ResolutionCache.keyFor("template", template.getFile(),
+                    Charset.defaultCharset().name(), String.valueOf(legacySubstitution), String.valueOf(streamed),
+                    encoding, binaryExtensions);
+            final LoadedTemplate cached = key == null ? null : cache.get(key, LoadedTemplate.class);
+            if (key != null) {
+                statistics.cacheLookup(cached != null);
+            }
+            if (cached != null) {
+                loadedTemplates.add(new LoadedTemplate(template, cached.getContent(), cached.getCompiledTemplate(),
+                        cached.getContentHash(), cached.getReferencedKeys(), cached.isVerbatim()));
+            } else {
+                final LoadedTemplate loadedTemplate = contentClassifier.isBinary(template.getFile()) ? loadVerbatimTemplate(template, statistics)
+                        : streamed ? loadStreamedTemplate(template, statistics) : loadTemplate(template, statistics);
+                if (key != null) {
+                    // Content and compiled segments are each about twice the file size as chars
+                    cache.put(key, loadedTemplate, loadedTemplate.getContent() == null ? 256 : 256 + 4 * template.getFile().length());
+                }
+                loadedTemplates.add(loadedTemplate);
+            }
+            statistics.templateTime(template, System.nanoTime() - startNanos);
+        }
+        return loadedTemplates;
+    }
+
+    private LoadedTemplate loadTemplate(final FileInfo template, final GenerationStatistics statistics) throws IOException {
+        final byte[] rawTemplate = FileUtils.readFileToByteArray(template.getFile());
+        statistics.templateRead(rawTemplate.length);
+        final String content = new String(rawTemplate, Charset.defaultCharset());
+        // Compiled even for legacy substitution to find the keys it references
+        final CompiledTemplate compiledTemplate = TemplateCompiler.compile(content);
+        if (compiledTemplate.getPlaceholderCount() == 0 && Arrays.equals(rawTemplate,
+                compiledTemplate.render(Collections.<String, String>emptyMap()).getBytes(Charset.forName(encoding)))) {
+            // Every filter would generate exactly the bytes just read, e.g. no escapes or charset changes
+            getLog().debug("Copying template without place-holders : " + template.getFile());
+            return new LoadedTemplate(template, null, null, Digests.sha256Hex(rawTemplate), compiledTemplate.getReferencedKeys(), true);
+        }
+        return new LoadedTemplate(template, content, legacySubstitution ? null : compiledTemplate,
+                Digests.sha256Hex(rawTemplate), compiledTemplate.getReferencedKeys(), false);
+    }
+
+    /**
+     * Binary templates are only hashed, never decoded, and copied as they are for each filter.
+     */
+    private LoadedTemplate loadVerbatimTemplate(final FileInfo template, final GenerationStatistics statistics) throws IOException {
+        getLog().debug("Copying binary template : " + template.getFile());
+        return new LoadedTemplate(template, null, null, hashTemplate(template, statistics), Collections.<String>emptySet(), true);
+    }
+
+    /**
+     * Large templates are only hashed at this point, their content is read again for each filter.
+     */
+    private LoadedTemplate loadStreamedTemplate(final FileInfo template, final GenerationStatistics statistics) throws IOException {
+        getLog().debug("Streaming large template : " + template.getFile());
+        return new LoadedTemplate(template, null, null, hashTemplate(template, statistics), null, false);
+    }
+
+    private static String hashTemplate(final FileInfo template, final GenerationStatistics statistics) throws IOException {
+        final MessageDigest digest = Digests.newDigest();
+        try (InputStream in = new DigestInputStream(new FileInputStream(template.getFile()), digest)) {
+            statistics.templateRead(IOUtils.copyLarge(in, new NullOutputStream()));
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    /**
+     * Substitute the already loaded filter properties into the already loaded template.
+     * Write results to output path with same relative path as input filters, unless the file
+     * already has exactly that content.
+     *
+     * Typical output is to ...target/filter-sub-dir/template-dir/template.name
+     *
+     * The output directory has already been created. Whether the file was written, the bytes generated
+     * and the time each step took are recorded in the given result.
+     */
+    private void generateConfig(final GenerateConfigTask task, final GeneratedConfig generated) throws IOException {
+        final LoadedTemplate template = task.template;
+        final Path outputFile = task.outputFile;
+        if (template.isVerbatim()) {
+            final long stepStart = System.nanoTime();
+            generated.written = outputWriter.copy(template.getFileInfo().getFile(), outputFile.toFile());
+            generated.bytesGenerated = template.getFileInfo().getFile().length();
+            generated.writeNanos = System.nanoTime() - stepStart;
+            if (deduplicate) {
+                generated.contentHash = template.getContentHash();
+            }
+            return;
+        }
+        if (template.isStreamed()) {
+            streamConfig(template, task.filter, outputFile.toFile(), generated);
+            return;
+        }
+        final byte[] output = task.render(generated);
+        final long stepStart = System.nanoTime();
+        generated.written = outputWriter.write(outputFile.toFile(), output);
+        generated.writeNanos = System.nanoTime() - stepStart;
+        if (deduplicate) {
+            generated.contentHash = Digests.sha256Hex(output);
+        }
+    }
+
+    /**
+     * Substitute the filter properties into a template that is held in memory, encoded ready to write.
+     */
+    private byte[] renderConfig(final LoadedTemplate template, final LoadedFilter filter, final GeneratedConfig generated) {
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("Applying filter : " + filter.toString() + " to template : " + template.toString());
+        }
+        final long stepStart = System.nanoTime();
+        final String processedTemplate;
+        if (template.getCompiledTemplate() != null) {
+            processedTemplate = template.getCompiledTemplate().render(filter.getProperties());
+        } else {
+            processedTemplate = StrSubstitutor.replace(template.getContent(), filter.getProperties());
+        }
+        final byte[] output = processedTemplate.getBytes(Charset.forName(encoding));
+        generated.renderNanos = System.nanoTime() - stepStart;
+        generated.bytesGenerated = output.length;
+        return output;
+    }
+
+    /**
+     * Substitute while copying so neither the template nor the output is ever held in memory as a whole.
+     * Substituting into the temporary file counts as rendering, replacing the output with it as writing.
+     */
+    private void streamConfig(final LoadedTemplate template, final LoadedFilter filter, final File outputFile,
+                              final GeneratedConfig generated) throws IOException {
+        long stepStart = System.nanoTime();
+        final Path temporary = outputWriter.createTemporaryFile(outputFile);
+        try (Reader reader = new InputStreamReader(new FileInputStream(template.getFileInfo().getFile()), Charset.defaultCharset());
+             Writer writer = Files.newBufferedWriter(temporary, Charset.forName(encoding), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            new StreamingSubstitutor(filter.getProperties()).substitute(reader, writer);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        generated.bytesGenerated = Files.size(temporary);
+        generated.renderNanos = System.nanoTime() - stepStart;
+        stepStart = System.nanoTime();
+        generated.written = outputWriter.commit(temporary, outputFile);
+        generated.writeNanos = System.nanoTime() - stepStart;
     }
 
     private void logConfigurationParameters() {
@@ -175,4 +878,78 @@ public class  ConfigProcessorMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Generates config for a single filter and template pair.
+     */
+    private class GenerateConfigTask implements Callable<GeneratedConfig> {
+
+        private final LoadedTemplate template;
+        private final LoadedFilter filter;
+        private final Path outputDirectory;
+        private final Path outputFile;
+        private final String relativeOutputPath;
+        private final RenderMemo renderMemo;
+        private String fingerprint;
+
+        GenerateConfigTask(final LoadedTemplate template, final LoadedFilter filter, final Path outputDirectory,
+                           final Path outputFile, final String relativeOutputPath, final RenderMemo renderMemo) {
+            this.template = template;
+            this.filter = filter;
+            this.outputDirectory = outputDirectory;
+            this.outputFile = outputFile;
+            this.relativeOutputPath = relativeOutputPath;
+            this.renderMemo = renderMemo;
+        }
+
+        /**
+         * Changes whenever the template or the value of a key it references changes.
+         */
+        String getFingerprint() {
+            if (fingerprint == null) {
+                fingerprint = PlaceholderIndex.getFingerprint(template, filter);
+            }
+            return fingerprint;
+        }
+
+        /**
+         * Rendered output, reused from an earlier filter with the same values for the template's keys if there is one.
+         */
+        byte[] render(final GeneratedConfig generated) {
+            if (renderMemo == null || !RenderMemo.canMemoize(template, filter)) {
+                return renderConfig(template, filter, generated);
+            }
+            final long lookupStart = System.nanoTime();
+            final byte[] memoized = renderMemo.get(getFingerprint());
+            generated.renderMemoHit = memoized != null;
+            if (memoized != null) {
+                generated.renderNanos = System.nanoTime() - lookupStart;
+                generated.bytesGenerated = memoized.length;
+                return memoized;
+            }
+            final byte[] output = renderConfig(template, filter, generated);
+            renderMemo.put(getFingerprint(), output);
+            return output;
+        }
+
+        public GeneratedConfig call() throws MojoExecutionException {
+            try {
+                final GeneratedConfig generated = new GeneratedConfig(template, filter, outputFile, relativeOutputPath);
+                if (!isArchiveOutput()) {
+                    generateConfig(this, generated);
+                } else if (!template.isStreamed() && !template.isVerbatim()) {
+                    // Added to the archive in task order by the calling thread
+                    generated.output = render(generated);
+                }
+                return generated;
+            } catch (Exception e) {
+                throw new MojoExecutionException("Failed generating config for " + this + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "filter '" + filter.getFileInfo().getFile() + "' with template '" + template.getFileInfo().getFile() + "'";
+        }
+    }
+
 }
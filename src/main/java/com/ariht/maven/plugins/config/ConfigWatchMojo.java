@@ -0,0 +1,398 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Generates config as the process goal does then keeps watching the templates and filters, regenerating
+ * whenever they change until the build is stopped.
+ *
+ * Every template and filter stays loaded in memory between generations. A change only re-reads the changed
+ * paths, reloads the templates at them and the filters that depend on them, through includes or as base
+ * filters they are layered on, and renders again just the pairs of those templates and filters whose
+ * fingerprint changed. Directories holding files that filters include from outside the filters directory
+ * are watched as well.
+ */
+@Mojo(name = "watch", requiresDirectInvocation = true)
+public class ConfigWatchMojo extends ConfigProcessorMojo {
+
+    /**
+     * Milliseconds without further changes to wait before regenerating, so that the several writes an
+     * editor makes when saving result in one regeneration.
+     */
+    @Parameter (property = "config.watchDebounce", defaultValue = "200")
+    protected long debounceMillis = 200;
+
+    private static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 1000;
+
+    private DirectoryWatcher watcher;
+    /** When the inputs of the current generation started to be read. */
+    private long generationStartMillis;
+
+    /** Every template and filter read, by path, in the order the directory reader gives them. */
+    private Map<String, FileInfo> templates;
+    private Map<String, FileInfo> filters;
+    /** Selected templates and environment filters as last loaded. */
+    private Map<File, LoadedTemplate> loadedTemplates;
+    private Map<File, LoadedFilter> loadedFilters;
+    /** Fingerprints of the outputs as last generated, null until everything has been generated once. */
+    private IncrementalState state;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        incremental = true;
+        try {
+            watcher = new DirectoryWatcher(getLog(), debounceMillis);
+            // Watch before generating so changes made during the first generation are not missed
+            watchRoot(getTemplatesRoot());
+            watchRoot(getFiltersRoot());
+        } catch (IOException e) {
+            throw new MojoFailureException("Unable to watch templates and filters: " + e.getMessage(), e);
+        }
+        try {
+            generationStartMillis = System.currentTimeMillis();
+            super.execute();
+            getLog().info("Watching " + templatesBasePath + " and " + filtersBasePath + " for changes");
+            while (watcher.awaitChanges()) {
+                regenerate();
+            }
+        } finally {
+            state = null;
+            watcher.close();
+        }
+    }
+
+    /**
+     * Keep everything just generated to regenerate from when it changes.
+     */
+    @Override
+    protected void generated(final List<FileInfo> templates, final List<FileInfo> filters, final List<LoadedTemplate> loadedTemplates,
+                             final List<LoadedFilter> loadedFilters, final IncrementalState state) throws IOException {
+        this.templates = byPath(templates);
+        this.filters = byPath(filters);
+        this.loadedTemplates = new HashMap<File, LoadedTemplate>();
+        for (final LoadedTemplate template : loadedTemplates) {
+            this.loadedTemplates.put(template.getFileInfo().getFile(), template);
+        }
+        this.loadedFilters = new HashMap<File, LoadedFilter>();
+        for (final LoadedFilter filter : loadedFilters) {
+            this.loadedFilters.put(filter.getFileInfo().getFile(), filter);
+        }
+        this.state = state;
+        watchDependencies(loadedFilters);
+    }
+
+    /**
+     * Generate again from what changed, reporting rather than stopping on failures such as a filter that
+     * is only partly edited. Changes that failed to generate are tried again with the next change.
+     */
+    private void regenerate() {
+        getLog().info("");
+        getLog().info("Templates or filters changed, regenerating config");
+        final Set<Path> changed = watcher.takeChangedPaths();
+        final boolean missed = watcher.takeChangesMissed();
+        generationStartMillis = System.currentTimeMillis();
+        final ResolutionCache cache = ResolutionCache.getInstance();
+        try {
+            if (missed || state == null) {
+                cache.clear();
+                processTemplatesAndGenerateConfig();
+            } else {
+                invalidate(cache, changed);
+                generateChanges(changed);
+            }
+        } catch (Exception e) {
+            getLog().error("Unable to generate config: " + e.getMessage(), e);
+            watcher.addChangedPaths(changed);
+            if (missed) {
+                watcher.addChangesMissed();
+            }
+        }
+    }
+
+    /**
+     * Cached values of changed files are dropped since a quick second save can leave a file's size and
+     * modification time as they were.
+     */
+    private void invalidate(final ResolutionCache cache, final Set<Path> changed) {
+        for (final Path path : changed) {
+            try {
+                cache.invalidate(path.toFile());
+            } catch (IOException e) {
+                getLog().debug("Unable to resolve " + path + ", clearing the resolution cache: " + e.getMessage());
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Read the changed paths, reload what depends on them and generate the pairs of changed templates
+     * and filters. What is kept in memory is only replaced once generation succeeds.
+     */
+    private void generateChanges(final Set<Path> changed) throws Exception {
+        final GenerationStatistics statistics = new GenerationStatistics();
+        long stageStart = System.nanoTime();
+        final Map<String, FileInfo> templates = new TreeMap<String, FileInfo>(this.templates);
+        final Map<String, FileInfo> filters = new TreeMap<String, FileInfo>(this.filters);
+        final DirectoryReader templatesReader = new DirectoryReader(getLog(), PATH_SEPARATOR, templatesToIgnore);
+        final DirectoryReader filtersReader = new DirectoryReader(getLog(), PATH_SEPARATOR, filtersToIgnore);
+        final Collection<FileInfo> changedTemplates = readChanges(templatesReader, getTemplatesRoot(), changed, templates);
+        final Collection<FileInfo> changedFilters = readChanges(filtersReader, getFiltersRoot(), changed, filters);
+        statistics.directoriesScanned(templatesReader.getDirectoriesScanned() + filtersReader.getDirectoriesScanned());
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.SCAN, stageStart);
+
+        final ResolutionCache cache = getResolutionCache();
+        final Set<Object> changedInputs = new HashSet<Object>();
+        final FilterLoader filterLoader = new FilterLoader(getLog(), encoding, filterLayering ? baseFilterName : null, cache, statistics);
+        final Map<File, LoadedFilter> loadedFilters = new HashMap<File, LoadedFilter>();
+        final List<FileInfo> environmentFilters = new ArrayList<FileInfo>(filters.size());
+        final List<FileInfo> filtersToLoad = new ArrayList<FileInfo>();
+        final PathSelector environmentSelector = new PathSelector(environments);
+        final Set<Path> canonicalChanges = canonicalize(changed);
+        final Set<Path> baseFilterDirectories = getBaseFilterDirectories(changedFilters, filterLoader);
+        for (final FileInfo filter : filters.values()) {
+            if (filterLoader.isBaseFilter(filter)) {
+                continue;
+            }
+            environmentFilters.add(filter);
+            if (!environmentSelector.matches(FilterLoader.getFilterSource(filter))) {
+                continue;
+            }
+            final LoadedFilter loadedFilter = this.loadedFilters.get(filter.getFile());
+            if (loadedFilter == null || changedFilters.contains(filter) || dependsOn(loadedFilter, canonicalChanges)
+                    || isBelow(filter.getFile().toPath(), baseFilterDirectories)) {
+                filtersToLoad.add(filter);
+            } else {
+                loadedFilters.put(filter.getFile(), loadedFilter);
+            }
+        }
+        for (final LoadedFilter filter : filterLoader.load(new ArrayList<FileInfo>(filters.values()), filtersToLoad)) {
+            loadedFilters.put(filter.getFileInfo().getFile(), filter);
+            changedInputs.add(filter);
+        }
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.FILTERS, stageStart);
+
+        final Map<File, LoadedTemplate> loadedTemplates = new HashMap<File, LoadedTemplate>();
+        final List<FileInfo> templatesToLoad = new ArrayList<FileInfo>();
+        final PathSelector templateSelector = new PathSelector(templatesToGenerate);
+        for (final FileInfo template : templates.values()) {
+            if (!templateSelector.matches(template.getRelativePath())) {
+                continue;
+            }
+            final LoadedTemplate loadedTemplate = this.loadedTemplates.get(template.getFile());
+            if (loadedTemplate == null || changedTemplates.contains(template)) {
+                templatesToLoad.add(template);
+            } else {
+                loadedTemplates.put(template.getFile(), loadedTemplate);
+            }
+        }
+        for (final LoadedTemplate template : loadTemplates(templatesToLoad, cache, statistics)) {
+            loadedTemplates.put(template.getFileInfo().getFile(), template);
+            changedInputs.add(template);
+        }
+        stageStart = stageCompleted(statistics, GenerationStatistics.Stage.TEMPLATES, stageStart);
+        getLog().info("Reloaded " + templatesToLoad.size() + " templates and " + filtersToLoad.size() + " filters");
+
+        final List<LoadedTemplate> orderedTemplates = inOrder(templates.values(), loadedTemplates);
+        final List<LoadedFilter> orderedFilters = inOrder(environmentFilters, loadedFilters);
+        final IncrementalState generatedState = generate(new ArrayList<FileInfo>(templates.values()), environmentFilters,
+                orderedTemplates, orderedFilters, state, changedInputs, statistics, stageStart);
+        if (generatedState != null) {
+            generated(new ArrayList<FileInfo>(templates.values()), new ArrayList<FileInfo>(filters.values()),
+                    orderedTemplates, orderedFilters, generatedState);
+        }
+    }
+
+    /**
+     * Replace what was read below each changed path under the root with what is there now.
+     *
+     * @return files added or changed, all with new FileInfo instances
+     */
+    private static Collection<FileInfo> readChanges(final DirectoryReader reader, final Path root, final Set<Path> changed,
+                                                    final Map<String, FileInfo> files) throws IOException {
+        final Map<String, FileInfo> changedFiles = new LinkedHashMap<String, FileInfo>();
+        for (final Path path : changed) {
+            if (!path.startsWith(root)) {
+                continue;
+            }
+            for (final Iterator<FileInfo> iterator = files.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().getFile().toPath().startsWith(path)) {
+                    iterator.remove();
+                }
+            }
+            for (final FileInfo file : reader.readFiles(root.toString(), path)) {
+                files.put(file.getFile().getPath(), file);
+                changedFiles.put(file.getFile().getPath(), file);
+            }
+        }
+        // Drop any read for one path then removed again by another
+        changedFiles.values().retainAll(files.values());
+        return new HashSet<FileInfo>(changedFiles.values());
+    }
+
+    /**
+     * Directories whose filters are layered on a base filter that changed, was added or was deleted.
+     */
+    private Set<Path> getBaseFilterDirectories(final Collection<FileInfo> changedFilters, final FilterLoader filterLoader) {
+        final Set<Path> directories = new HashSet<Path>();
+        for (final FileInfo filter : changedFilters) {
+            if (filterLoader.isBaseFilter(filter)) {
+                directories.add(filter.getFile().toPath().getParent());
+            }
+        }
+        for (final FileInfo filter : filters.values()) {
+            if (filterLoader.isBaseFilter(filter) && !filter.getFile().exists()) {
+                directories.add(filter.getFile().toPath().getParent());
+            }
+        }
+        return directories;
+    }
+
+    private Set<Path> canonicalize(final Set<Path> paths) {
+        final Set<Path> canonicalPaths = new HashSet<Path>(paths.size() * 2);
+        for (final Path path : paths) {
+            canonicalPaths.add(canonicalize(path));
+        }
+        return canonicalPaths;
+    }
+
+    /**
+     * Canonical path to compare with filter dependencies, which are canonical, or as it is if it cannot be resolved.
+     */
+    private Path canonicalize(final Path path) {
+        try {
+            return path.toFile().getCanonicalFile().toPath();
+        } catch (IOException e) {
+            getLog().debug("Unable to resolve " + path + ": " + e.getMessage());
+            return path.toAbsolutePath().normalize();
+        }
+    }
+
+    private static boolean dependsOn(final LoadedFilter filter, final Set<Path> canonicalChanges) {
+        for (final File dependency : filter.getDependencies()) {
+            if (isBelow(dependency.toPath(), canonicalChanges)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBelow(final Path path, final Set<Path> directories) {
+        for (final Path directory : directories) {
+            if (path.startsWith(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> List<T> inOrder(final Collection<FileInfo> files, final Map<File, T> loaded) {
+        final List<T> ordered = new ArrayList<T>(loaded.size());
+        for (final FileInfo file : files) {
+            final T value = loaded.get(file.getFile());
+            if (value != null) {
+                ordered.add(value);
+            }
+        }
+        return ordered;
+    }
+
+    private static Map<String, FileInfo> byPath(final List<FileInfo> files) {
+        final Map<String, FileInfo> byPath = new TreeMap<String, FileInfo>();
+        for (final FileInfo file : files) {
+            byPath.put(file.getFile().getPath(), file);
+        }
+        return byPath;
+    }
+
+    private Path getTemplatesRoot() {
+        return Paths.get(templatesBasePath).toAbsolutePath().normalize();
+    }
+
+    private Path getFiltersRoot() {
+        return Paths.get(filtersBasePath).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Watch a base path, warning rather than failing when it does not exist as the process goal does.
+     */
+    private void watchRoot(final Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            getLog().warn("Directory does not exist, not watching: " + root);
+            return;
+        }
+        watcher.watchTree(root);
+    }
+
+    /**
+     * Also watch the directories of files that filters include from outside the watched trees. Included files
+     * changed since they were read, before their directory was watched, are generated again straight away.
+     */
+    private void watchDependencies(final List<LoadedFilter> loadedFilters) {
+        final Path templatesRoot = canonicalize(getTemplatesRoot());
+        final Path filtersRoot = canonicalize(getFiltersRoot());
+        final Set<Path> directories = new HashSet<Path>();
+        for (final LoadedFilter filter : loadedFilters) {
+            for (final File dependency : filter.getDependencies()) {
+                final Path directory = dependency.toPath().getParent();
+                if (!directory.startsWith(templatesRoot) && !directory.startsWith(filtersRoot)) {
+                    directories.add(directory);
+                }
+            }
+        }
+        directories.removeAll(watcher.getWatchedDirectories());
+        for (final Path directory : directories) {
+            try {
+                getLog().debug("Watching included files in : " + directory);
+                watcher.watchDirectory(directory);
+            } catch (IOException e) {
+                getLog().warn("Unable to watch " + directory + ": " + e.getMessage());
+            }
+        }
+        for (final LoadedFilter filter : loadedFilters) {
+            for (final File dependency : filter.getDependencies()) {
+                // Allowing for file systems that only record modification times to the second
+                if (directories.contains(dependency.toPath().getParent())
+                        && dependency.lastModified() >= generationStartMillis - MODIFICATION_TIME_RESOLUTION_MILLIS) {
+                    watcher.addChangedPaths(Collections.singleton(dependency.toPath()));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Tells binary files, such as keystores, images and jars kept alongside the templates, apart from text
+ * templates. Known binary extensions are recognised by name, any other file is binary if there is a NUL
+ * byte near its start, as git decides. Binary files are copied as they are rather than being decoded,
+ * substituted and encoded again.
+ */
+public class ContentClassifier {
+
+    public static final String DEFAULT_BINARY_EXTENSIONS
+            = "jar,war,ear,zip,gz,tgz,bz2,7z,class,so,dll,exe,jks,jceks,keystore,p12,pfx,der,png,jpg,jpeg,gif,ico,bmp,pdf";
+
+    private static final int SNIFF_LENGTH = 8000;
+
+    private final Set<String> binaryExtensions = new HashSet<String>();
+
+    /**
+     * @param binaryExtensions comma separated extensions, with or without a leading '.', of files that
+     *                         are always binary
+     */
+    public ContentClassifier(final String binaryExtensions) {
+        for (final String extension : StringUtils.split(StringUtils.defaultString(binaryExtensions), ',')) {
+            final String trimmed = StringUtils.removeStart(extension.trim(), ".");
+            if (trimmed.length() > 0) {
+                this.binaryExtensions.add(trimmed.toLowerCase(Locale.ENGLISH));
+            }
+        }
+    }
+
+    public boolean isBinary(final File file) throws IOException {
+        if (binaryExtensions.contains(FilenameUtils.getExtension(file.getName()).toLowerCase(Locale.ENGLISH))) {
+            return true;
+        }
+        final byte[] head = new byte[(int) Math.min(SNIFF_LENGTH, file.length())];
+        final int length;
+        try (InputStream in = new FileInputStream(file)) {
+            length = IOUtils.read(in, head);
+        }
+        for (int i = 0; i < length; i++) {
+            if (head[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
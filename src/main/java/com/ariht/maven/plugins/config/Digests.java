@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 content hashes used to tell whether inputs or outputs have changed.
+ */
+public final class Digests {
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is required by every Java platform", e);
+        }
+    }
+
+    public static String sha256Hex(final byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Hash of every key and value in key order, so equal maps always give the same hash.
+     */
+    public static String sha256Hex(final Map<String, String> properties) {
+        final MessageDigest digest = newDigest();
+        for (final Map.Entry<String, String> entry : new TreeMap<String, String>(properties).entrySet()) {
+            update(digest, entry.getKey());
+            update(digest, entry.getValue());
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String sha256Hex(final String... values) {
+        final MessageDigest digest = newDigest();
+        for (final String value : values) {
+            update(digest, value);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Adds the value followed by a separator, so "ab","c" and "a","bc" hash differently.
+     */
+    public static void update(final MessageDigest digest, final String value) {
+        if (value != null) {
+            digest.update(value.getBytes(UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    public static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+}
@@ -18,108 +18,200 @@ package com.ariht.maven.plugins.config;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.maven.plugin.logging.Log;
 
 /**
  * Reads directory recursively to put collated file information such as
  * relative paths, name (without extension) and a reference to the {@link File} itself.
+ *
+ * Files to ignore are either path prefixes, or patterns prefixed with "glob:" or "regex:" matched
+ * against the path relative to the directory being read. Ignored directories are not descended into.
  */
 public class DirectoryReader {
 
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final String REGEX_SYNTAX = "regex:";
+
     private final Log log;
     private final String pathSeparator;
-    private final List<File> filesToIgnore;
-
-    private static final List<File> EMPTY_FILE_LIST = Collections.unmodifiableList(new LinkedList<File>());
+    private final List<String> pathPrefixesToIgnore;
+    private final List<PathMatcher> patternsToIgnore;
+    private long directoriesScanned;
 
     public DirectoryReader(final Log log, final String pathSeparator, final List<String> filenamesToIgnore) {
         this.log = log;
         this.pathSeparator = pathSeparator;
-        this.filesToIgnore = processFilesToIgnore(filenamesToIgnore);
+        this.pathPrefixesToIgnore = new ArrayList<String>();
+        this.patternsToIgnore = new ArrayList<PathMatcher>();
+        processFilesToIgnore(filenamesToIgnore);
     }
 
-    private boolean isFileToIgnore(File file) {
-        for (File f : filesToIgnore) {
-            if (StringUtils.startsWith(file.getAbsolutePath(), f.getAbsolutePath())) {
-                log.debug("Matched prefix so will ignore: \n" + file.getAbsolutePath() + "\n" + f.getAbsolutePath());
+    private boolean isToIgnore(final Path baseDirectory, final Path path) {
+        final String absolutePath = path.toString();
+        for (final String prefix : pathPrefixesToIgnore) {
+            if (absolutePath.startsWith(prefix)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Matched prefix so will ignore: \n" + absolutePath + "\n" + prefix);
+                }
                 return true;
-            } else {
-                log.debug("Not same: \n" + file.getAbsolutePath() + "\n" + f.getAbsolutePath());
+            }
+        }
+        if (!patternsToIgnore.isEmpty()) {
+            final Path relativePath = baseDirectory.relativize(path);
+            for (final PathMatcher pattern : patternsToIgnore) {
+                if (pattern.matches(relativePath)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Matched pattern so will ignore: " + relativePath);
+                    }
+                    return true;
+                }
             }
         }
         return false;
     }
 
+    /**
+     * Directories walked by every {@link #readFiles(String)} so far, not counting ignored ones.
+     */
+    public long getDirectoriesScanned() {
+        return directoriesScanned;
+    }
+
     /**
      * Read directory creating FileInfo for each file found, include sub-directories.
      */
-    public List<FileInfo> readFiles(final String path) throws IOException, InstantiationException, IllegalAccessException {
+    public List<FileInfo> readFiles(final String path) throws IOException {
         log.debug("Scanning directory: " + path);
+        final long startNanos = System.nanoTime();
         final File directory = new File(path);
-        final Collection<File> allFiles = getAllFiles(directory);
-        if (allFiles.isEmpty()) {
+        if (!directory.exists()) {
+            log.warn("Directory does not exist: " + directory.getPath());
             log.warn("No files found in directory: " + path);
+            return Collections.emptyList();
         }
-        final List<FileInfo> allFilesInfo = new ArrayList<FileInfo>(allFiles.size());
-        final String canonicalBaseDirectory = directory.getCanonicalPath();
-        for (final File file : allFiles) {
-            final FileInfo fileInfo = new FileInfo(file);
-            // Remove base directory to derive sub-directory
-            final String canonicalFilePath = FilenameUtils.getFullPathNoEndSeparator(file.getCanonicalPath());
-            final String subDirectory = FilenameUtils.normalize(StringUtils.replaceOnce(canonicalFilePath, canonicalBaseDirectory, "") + pathSeparator);
-            fileInfo.setRelativeSubDirectory(subDirectory);
-            allFilesInfo.add(fileInfo);
+        final Path baseDirectory = directory.toPath().toAbsolutePath().normalize();
+        final List<FileInfo> allFilesInfo = walk(baseDirectory, baseDirectory);
+        if (allFilesInfo.isEmpty()) {
+            log.warn("No files found in directory: " + path);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Scanned " + allFilesInfo.size() + " files in " + path + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
         }
         return allFilesInfo;
     }
 
-    @SuppressWarnings("rawtypes")
-    private Collection<File> getAllFiles(final File directory) {
-        if (!directory.exists()) {
-            log.warn("Directory does not exist: " + directory.getPath());
-            return EMPTY_FILE_LIST;
+    /**
+     * Read only the files at or below a path in the directory, e.g. one that has just changed, creating
+     * FileInfo relative to the directory as reading all of it would. Nothing is read when the path no
+     * longer exists or is ignored.
+     */
+    public List<FileInfo> readFiles(final String path, final Path start) throws IOException {
+        final Path baseDirectory = new File(path).toPath().toAbsolutePath().normalize();
+        final Path startPath = start.toAbsolutePath().normalize();
+        if (!startPath.startsWith(baseDirectory) || !Files.exists(startPath)) {
+            return Collections.emptyList();
+        }
+        for (Path ancestor = startPath; !ancestor.equals(baseDirectory); ancestor = ancestor.getParent()) {
+            if (isToIgnore(baseDirectory, ancestor)) {
+                return Collections.emptyList();
+            }
         }
-        final Collection allFiles = FileUtils.listFiles(directory, TrueFileFilter.TRUE, DirectoryFileFilter.DIRECTORY);
-        final Collection<File> files = new ArrayList<File>(allFiles.size());
-        for (final Object o : allFiles) {
-            if (o != null && o instanceof File) {
-                final File file = (File) o;
-                if (isFileToIgnore(file)) {
-                    log.info("Ignoring: " + file.toString());
+        return walk(baseDirectory, startPath);
+    }
+
+    private List<FileInfo> walk(final Path baseDirectory, final Path start) throws IOException {
+        final List<FileInfo> allFilesInfo = new ArrayList<FileInfo>();
+        Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (!dir.equals(baseDirectory) && isToIgnore(baseDirectory, dir)) {
+                    log.info("Ignoring: " + dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directoriesScanned++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (isToIgnore(baseDirectory, file)) {
+                    log.info("Ignoring: " + file);
                 } else {
-                    log.debug("Adding file: " + file.toString());
-                    files.add(file);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Adding file: " + file);
+                    }
+                    allFilesInfo.add(createFileInfo(baseDirectory, file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                if (e instanceof FileSystemLoopException) {
+                    log.warn("Not following link back to parent directory: " + file);
+                    return FileVisitResult.CONTINUE;
                 }
-            } else {
-                log.warn("Not a file: " + ToStringBuilder.reflectionToString(o));
+                throw e;
+            }
+        });
+        // Directory listing order is platform dependent, sort so output order is not
+        Collections.sort(allFilesInfo, new Comparator<FileInfo>() {
+            public int compare(final FileInfo a, final FileInfo b) {
+                return a.getFile().getPath().compareTo(b.getFile().getPath());
             }
+        });
+        return allFilesInfo;
+    }
+
+    /**
+     * Sub-directory is derived from the walk itself so no per-file canonicalisation is needed.
+     */
+    private FileInfo createFileInfo(final Path baseDirectory, final Path file) {
+        final FileInfo fileInfo = new FileInfo(file.toFile());
+        final String subDirectory = baseDirectory.relativize(file.getParent()).toString();
+        if (subDirectory.isEmpty()) {
+            fileInfo.setRelativeSubDirectory(FilenameUtils.normalize(pathSeparator));
+        } else {
+            fileInfo.setRelativeSubDirectory(FilenameUtils.normalize(pathSeparator + subDirectory + pathSeparator));
         }
-        return files;
+        return fileInfo;
     }
 
-    private List<File> processFilesToIgnore(final List<String> filesToIgnore) {
+    private void processFilesToIgnore(final List<String> filesToIgnore) {
         if (filesToIgnore == null || filesToIgnore.isEmpty()) {
-            return EMPTY_FILE_LIST;
+            return;
         }
-        final List<File> filesIgnored = new ArrayList<File>(filesToIgnore.size());
         for (String fileToIgnore : new LinkedHashSet<String>(filesToIgnore)) {
             if (StringUtils.isNotBlank(fileToIgnore)) {
-                fileToIgnore = FilenameUtils.separatorsToSystem(FilenameUtils.normalize(fileToIgnore.trim()));
+                fileToIgnore = fileToIgnore.trim();
+                if (fileToIgnore.startsWith(GLOB_SYNTAX) || fileToIgnore.startsWith(REGEX_SYNTAX)) {
+                    log.debug("Adding ignore for pattern: " + fileToIgnore);
+                    patternsToIgnore.add(FileSystems.getDefault().getPathMatcher(fileToIgnore));
+                    continue;
+                }
+                fileToIgnore = FilenameUtils.separatorsToSystem(FilenameUtils.normalize(fileToIgnore));
                 final File file = new File(fileToIgnore);
                 if (file.exists()) {
-                    log.debug("Adding ignore for file: " + file.getAbsolutePath());
-                    filesIgnored.add(file);
+                    final String absolutePath = file.toPath().toAbsolutePath().normalize().toString();
+                    log.debug("Adding ignore for file: " + absolutePath);
+                    pathPrefixesToIgnore.add(absolutePath);
                 }
             }
         }
-        return filesIgnored;
     }
 }
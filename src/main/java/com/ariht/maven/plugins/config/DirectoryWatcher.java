@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects the files and directories changed below watched directories, waiting until changes stop
+ * arriving for a debounce period so the several writes an editor makes when saving are seen together.
+ *
+ * Trees are watched recursively, including directories created in them later, while single directories
+ * are watched on their own. Lost events are recorded as missed changes rather than as paths.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private final Log log;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+    private final List<Path> trees = new ArrayList<Path>();
+    /** Files and directories changed since they were last taken. */
+    private final Set<Path> changedPaths = new LinkedHashSet<Path>();
+    /** Events were lost since this was last taken. */
+    private boolean changesMissed;
+
+    public DirectoryWatcher(final Log log, final long debounceMillis) throws IOException {
+        this.log = log;
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watch the directory, every directory below it and any directory later created below it.
+     */
+    public void watchTree(final Path root) throws IOException {
+        trees.add(root);
+        watchDirectories(root);
+    }
+
+    public void watchDirectory(final Path directory) throws IOException {
+        final WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.put(key, directory);
+    }
+
+    public Collection<Path> getWatchedDirectories() {
+        return watchedDirectories.values();
+    }
+
+    /**
+     * Block until something changes then until no more changes arrive for the debounce period.
+     *
+     * @return false if interrupted, i.e. watching should stop
+     */
+    public boolean awaitChanges() {
+        try {
+            // Changes already found, e.g. before a directory was watched, only wait for the debounce period
+            WatchKey key = changedPaths.isEmpty() && !changesMissed ? watchService.take()
+                    : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            while (key != null) {
+                processEvents(key);
+                key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * The paths changed since the last call, which are then forgotten.
+     */
+    public Set<Path> takeChangedPaths() {
+        final Set<Path> changed = new LinkedHashSet<Path>(changedPaths);
+        changedPaths.clear();
+        return changed;
+    }
+
+    /**
+     * Whether events were lost since the last call, which is then forgotten.
+     */
+    public boolean takeChangesMissed() {
+        final boolean missed = changesMissed;
+        changesMissed = false;
+        return missed;
+    }
+
+    /**
+     * Report paths as changed, e.g. changes that still have to be handled after a failure.
+     */
+    public void addChangedPaths(final Collection<Path> paths) {
+        changedPaths.addAll(paths);
+    }
+
+    public void addChangesMissed() {
+        changesMissed = true;
+    }
+
+    private void processEvents(final WatchKey key) {
+        final Path directory = watchedDirectories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                log.debug("Missed changes, all templates and filters will be read again");
+                changesMissed = true;
+                continue;
+            }
+            final Path changed = directory.resolve((Path) event.context());
+            log.debug("Changed : " + changed);
+            changedPaths.add(changed);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed) && isInTree(changed)) {
+                try {
+                    watchDirectories(changed);
+                } catch (IOException e) {
+                    log.warn("Unable to watch " + changed + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!key.reset()) {
+            // The directory has been deleted
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private boolean isInTree(final Path path) {
+        for (final Path tree : trees) {
+            if (path.startsWith(tree)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void watchDirectories(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes) throws IOException {
+                watchDirectory(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void close() {
+        watchedDirectories.clear();
+        changedPaths.clear();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.debug("Unable to close watch service: " + e.getMessage());
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package com.ariht.maven.plugins.config;
 
 import java.io.File;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
@@ -52,6 +53,13 @@ public class FileInfo {
         return file;
     }
 
+    /**
+     * Path below the directory that was read, with '/' separators and no leading '/'.
+     */
+    public String getRelativePath() {
+        return StringUtils.removeStart(FilenameUtils.separatorsToUnix(relativeSubDirectory + file.getName()), "/");
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this, ToStringStyle.MULTI_LINE_STYLE);
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.text.StrLookup;
+import org.apache.commons.lang.text.StrSubstitutor;
+
+/**
+ * Reads a filter straight into a {@link PropertyTable}, giving the same properties as loading it into a
+ * {@link PropertiesConfiguration} and converting that with
+ * {@link org.apache.commons.configuration.ConfigurationConverter#getProperties} but without the
+ * configuration, its events and its synchronized stores.
+ *
+ * As with Commons Configuration, lines are trimmed, blank lines and those starting with '#' or '!' are
+ * skipped, a line ending with an odd number of '\' continues on the next, keys and values are unescaped,
+ * values are split into lists at unescaped ',' and each list element is interpolated before they are
+ * joined again. A filter with an include, a ${prefix:name} lookup such as ${env:HOME}, or anything else
+ * this does not handle, such as a malformed unicode escape, is left to Commons Configuration.
+ */
+public final class FilterFileParser {
+
+    /** The same pattern {@link PropertiesConfiguration.PropertiesReader} splits lines with. */
+    private static final Pattern PROPERTY_PATTERN = Pattern.compile("(([\\S&&[^\\\\=:]]|\\\\.)*)(\\s*(\\s+|[=:])\\s*)(.*)");
+    private static final int KEY_GROUP = 1;
+    private static final int VALUE_GROUP = 5;
+    private static final String COMMENT_CHARS = "#!";
+    private static final char LIST_DELIMITER = ',';
+    private static final char ESCAPE = '\\';
+    private static final int UNICODE_LENGTH = 4;
+    private static final Set<String> LOOKUP_PREFIXES = new BaseConfiguration().getInterpolator().prefixSet();
+
+    private FilterFileParser() {
+    }
+
+    /**
+     * @param reader       filter content, decoded as ISO-8859-1 to match Commons Configuration
+     * @param filterSource value of the synthetic {@link FilterLoader#FILTER_SOURCE_KEY} key
+     * @return the resolved properties, or null if the filter has to be read with Commons Configuration
+     */
+    public static PropertyTable parse(final Reader reader, final String filterSource) throws IOException {
+        final Map<String, List<String>> rawProperties = new LinkedHashMap<String, List<String>>();
+        try {
+            final BufferedReader lines = new BufferedReader(reader);
+            for (String line = readProperty(lines); line != null; line = readProperty(lines)) {
+                final Matcher matcher = PROPERTY_PATTERN.matcher(line);
+                final boolean matches = matcher.matches();
+                final String key = matches ? StringEscapeUtils.unescapeJava(matcher.group(KEY_GROUP).trim()) : "";
+                final String value = matches ? unescapeValue(matcher.group(VALUE_GROUP).trim()) : "";
+                if (value == null || PropertiesConfiguration.getInclude().equalsIgnoreCase(key)) {
+                    return null;
+                }
+                addProperty(rawProperties, key, value);
+            }
+            rawProperties.remove(FilterLoader.FILTER_SOURCE_KEY);
+            addProperty(rawProperties, FilterLoader.FILTER_SOURCE_KEY, filterSource);
+            return usesLookups(rawProperties) ? null : interpolate(rawProperties);
+        } catch (RuntimeException e) {
+            // e.g. a cyclic reference, for Commons Configuration to report as it always has
+            return null;
+        }
+    }
+
+    /**
+     * Next property definition with continuation lines joined, or null at the end, including when the
+     * last line asks to be continued.
+     */
+    private static String readProperty(final BufferedReader lines) throws IOException {
+        final StringBuilder property = new StringBuilder();
+        while (true) {
+            final String line = lines.readLine();
+            if (line == null) {
+                return null;
+            }
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || COMMENT_CHARS.indexOf(trimmed.charAt(0)) >= 0) {
+                continue;
+            }
+            int trailingEscapes = 0;
+            while (trailingEscapes < trimmed.length() && trimmed.charAt(trimmed.length() - 1 - trailingEscapes) == ESCAPE) {
+                trailingEscapes++;
+            }
+            if (trailingEscapes % 2 == 0) {
+                return property.append(trimmed).toString();
+            }
+            property.append(trimmed, 0, trimmed.length() - 1);
+        }
+    }
+
+    /**
+     * Java escapes, except that an escaped list delimiter keeps its '\' for the list splitting that
+     * follows. Null if a unicode escape is not valid hex.
+     */
+    private static String unescapeValue(final String value) {
+        final StringBuilder unescaped = new StringBuilder(value.length());
+        int index = 0;
+        while (index < value.length()) {
+            final char c = value.charAt(index++);
+            if (c != ESCAPE) {
+                unescaped.append(c);
+            } else if (index == value.length()) {
+                unescaped.append(ESCAPE);
+            } else {
+                final char escaped = value.charAt(index++);
+                switch (escaped) {
+                    case 'r': unescaped.append('\r'); break;
+                    case 'f': unescaped.append('\f'); break;
+                    case 't': unescaped.append('\t'); break;
+                    case 'n': unescaped.append('\n'); break;
+                    case 'b': unescaped.append('\b'); break;
+                    case LIST_DELIMITER: unescaped.append(ESCAPE).append(LIST_DELIMITER); break;
+                    case 'u':
+                        if (index + UNICODE_LENGTH <= value.length()) {
+                            try {
+                                unescaped.append((char) Integer.parseInt(value.substring(index, index + UNICODE_LENGTH), 16));
+                            } catch (NumberFormatException e) {
+                                return null;
+                            }
+                        }
+                        // An incomplete escape at the end is dropped
+                        index += UNICODE_LENGTH;
+                        break;
+                    default: unescaped.append(escaped);
+                }
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Values are split into list elements at unescaped delimiters, unless the first delimiter is the
+     * first character, and a key defined more than once gets all the elements of each definition.
+     */
+    private static void addProperty(final Map<String, List<String>> rawProperties, final String key, final String value) {
+        List<String> elements = rawProperties.get(key);
+        if (elements == null) {
+            elements = new ArrayList<String>(1);
+            rawProperties.put(key, elements);
+        }
+        if (value.indexOf(LIST_DELIMITER) <= 0) {
+            elements.add(value);
+            return;
+        }
+        final StringBuilder element = new StringBuilder();
+        boolean escaping = false;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (escaping) {
+                if (c != LIST_DELIMITER && c != ESCAPE) {
+                    element.append(ESCAPE);
+                }
+                element.append(c);
+                escaping = false;
+            } else if (c == LIST_DELIMITER) {
+                elements.add(element.toString().trim());
+                element.setLength(0);
+            } else if (c == ESCAPE) {
+                escaping = true;
+            } else {
+                element.append(c);
+            }
+        }
+        if (escaping) {
+            element.append(ESCAPE);
+        }
+        elements.add(element.toString().trim());
+    }
+
+    private static boolean usesLookups(final Map<String, List<String>> rawProperties) {
+        for (final List<String> elements : rawProperties.values()) {
+            for (final String element : elements) {
+                for (final String prefix : LOOKUP_PREFIXES) {
+                    if (element.contains("${" + prefix + ":")) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolve nested ${} references once, a reference to a list getting its first element, and join
+     * list elements back together.
+     */
+    private static PropertyTable interpolate(final Map<String, List<String>> rawProperties) {
+        final StrSubstitutor substitutor = new StrSubstitutor(new StrLookup() {
+            @Override
+            public String lookup(final String key) {
+                final List<String> elements = rawProperties.get(key);
+                return elements == null ? null : elements.get(0);
+            }
+        });
+        final Map<String, String> resolved = new HashMap<String, String>(rawProperties.size() * 2);
+        for (final Map.Entry<String, List<String>> property : rawProperties.entrySet()) {
+            final List<String> elements = property.getValue();
+            if (elements.size() == 1) {
+                resolved.put(property.getKey(), substitutor.replace(elements.get(0)));
+            } else {
+                final List<String> interpolated = new ArrayList<String>(elements.size());
+                for (final String element : elements) {
+                    interpolated.add(substitutor.replace(element));
+                }
+                resolved.put(property.getKey(), StringUtils.join(interpolated, LIST_DELIMITER));
+            }
+        }
+        return PropertyTable.copyOf(resolved);
+    }
+
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.ConfigurationConverter;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Resolves filter files into the properties substituted into templates.
+ *
+ * With layering enabled, a filter named like the base filter name (e.g. common.filter) provides
+ * defaults for every filter in its directory and the directories below it, and a filter can name
+ * further filters to build on with an "include" key. Keys in a filter override those of the layers
+ * beneath it. Each layer is parsed once and shared by all the filters built on it.
+ *
+ * As with Commons Configuration, includes are resolved against the directory of the filter being
+ * loaded, including those in included files, so layering never changes which file is included.
+ *
+ * Filters without layering are read by {@link FilterFileParser} where it can, and all resolved
+ * properties are held in a {@link PropertyTable}.
+ *
+ * Given a {@link ResolutionCache}, resolved filters, or parsed layers when layering, are also shared
+ * with later executions in the same JVM for as long as the files are unchanged.
+ */
+public class FilterLoader {
+
+    public static final String FILTER_SOURCE_KEY = "filter.source";
+
+    /** Encoding Commons Configuration reads filters with when loaded via the file constructor. */
+    private static final String FILTER_FILE_ENCODING = "ISO-8859-1";
+
+    private final Log log;
+    private final String encoding;
+    private final String baseFilterName;
+    private final ResolutionCache cache;
+    private final GenerationStatistics statistics;
+
+    /**
+     * Properties of each file with its includes applied, values are a String or a List of them, keyed by
+     * the directory includes were resolved against and the file.
+     */
+    private final Map<List<File>, Layer> fileLayers = new HashMap<List<File>, Layer>();
+    /** Merged base filters that apply to every filter in a relative sub-directory. */
+    private final Map<String, Layer> directoryLayers = new HashMap<String, Layer>();
+    private final Set<File> filesBeingLoaded = new HashSet<File>();
+
+    /**
+     * @param baseFilterName name, without extension, of the filters that provide defaults for
+     *                       their directory - layering is disabled when null
+     * @param cache          shared across executions, or null to parse every filter afresh
+     */
+    public FilterLoader(final Log log, final String encoding, final String baseFilterName, final ResolutionCache cache,
+                        final GenerationStatistics statistics) {
+        this.log = log;
+        this.encoding = encoding;
+        this.baseFilterName = StringUtils.trimToNull(baseFilterName);
+        this.cache = cache;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Resolve every filter that represents a target environment, i.e. all except base filters.
+     */
+    public List<LoadedFilter> load(final List<FileInfo> filters) throws ConfigurationException, IOException {
+        return load(filters, filters);
+    }
+
+    /**
+     * Resolve only some of the filters, e.g. those affected by a change, with the base filters they
+     * are layered on found among all of them.
+     */
+    public List<LoadedFilter> load(final List<FileInfo> filters, final Collection<FileInfo> filtersToResolve) throws ConfigurationException, IOException {
+        final Map<String, FileInfo> baseFilters = new HashMap<String, FileInfo>();
+        for (final FileInfo filter : filters) {
+            if (isBaseFilter(filter)) {
+                final FileInfo clash = baseFilters.put(getUnixSubDirectory(filter), filter);
+                if (clash != null) {
+                    throw new ConfigurationException("More than one base filter in " + filter.getFile().getParent());
+                }
+            }
+        }
+        final List<LoadedFilter> loadedFilters = new ArrayList<LoadedFilter>(filtersToResolve.size());
+        for (final FileInfo filter : filtersToResolve) {
+            if (isBaseFilter(filter)) {
+                log.debug("Using as base filter : " + filter.getFile());
+                continue;
+            }
+            final long startNanos = System.nanoTime();
+            if (baseFilterName == null) {
+                loadedFilters.add(resolveFilter(filter));
+            } else {
+                loadedFilters.add(resolveLayered(filter, baseFilters));
+            }
+            statistics.filterTime(filter, System.nanoTime() - startNanos);
+        }
+        return loadedFilters;
+    }
+
+    public boolean isBaseFilter(final FileInfo filter) {
+        return baseFilterName != null && baseFilterName.equals(filter.getNameWithoutExtension());
+    }
+
+    /**
+     * A filter resolved on its own, from the cache if it is unchanged since it was last resolved.
+     * Filters looking up system properties or the environment, or including other files, are never
+     * cached as those may change while the filter itself does not.
+     */
+    @SuppressWarnings("unchecked")
+    private LoadedFilter resolveFilter(final FileInfo filter) throws ConfigurationException, IOException {
+        final Set<File> dependencies = new LinkedHashSet<File>();
+        dependencies.add(filter.getFile().getCanonicalFile());
+        final ResolutionCache.Key key = cache == null ? null
+                : ResolutionCache.keyFor("filter", filter.getFile(), encoding, getFilterSource(filter));
+        if (key != null) {
+            final Map<String, String> cached = cache.get(key, Map.class);
+            statistics.cacheLookup(cached != null);
+            if (cached != null) {
+                return new LoadedFilter(filter, cached, Collections.unmodifiableSet(dependencies));
+            }
+        }
+        Map<String, String> properties;
+        try (Reader reader = new InputStreamReader(new FileInputStream(filter.getFile()), FILTER_FILE_ENCODING)) {
+            properties = FilterFileParser.parse(reader, getFilterSource(filter));
+        }
+        boolean cacheable = true;
+        if (properties != null) {
+            statistics.filterParsed(filter.getFile().length());
+        } else {
+            log.debug("Reading filter with Commons Configuration : " + filter.getFile());
+            final PropertiesConfiguration config = readFilter(filter);
+            properties = toMap(ConfigurationConverter.getProperties(config));
+            addIncludedFiles(filter.getFile(), filter.getFile().getParentFile(), dependencies);
+            cacheable = !usesLookups(config) && dependencies.size() == 1;
+        }
+        if (key != null && cacheable) {
+            cache.put(key, properties, estimateSize(filter.getFile()));
+        }
+        return new LoadedFilter(filter, properties, Collections.unmodifiableSet(dependencies));
+    }
+
+    /**
+     * Filter files contain the properties we wish to substitute in templates.
+     *
+     * Uses Apache Commons Configuration to load filters.
+     */
+    private PropertiesConfiguration readFilter(final FileInfo filter) throws ConfigurationException {
+        final PropertiesConfiguration config = new PropertiesConfiguration(filter.getFile());
+        statistics.filterParsed(filter.getFile().length());
+        config.setEncoding(encoding);
+        // Add one more property:   filter.source=/relative/sub/dir/filenameNoExtension
+        config.setProperty(FILTER_SOURCE_KEY, getFilterSource(filter));
+        return config;
+    }
+
+    /**
+     * True if any value refers to a lookup such as ${sys:user.home} or ${env:HOME}.
+     */
+    private static boolean usesLookups(final AbstractConfiguration config) {
+        final Set<String> prefixes = config.getInterpolator().prefixSet();
+        for (final String key : getKeys(config)) {
+            final String value = String.valueOf(config.getProperty(key));
+            for (final String prefix : prefixes) {
+                if (value.contains("${" + prefix + ":")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the files Commons Configuration includes in a filter, directly or through other includes, each
+     * resolved against the directory of the filter as Commons Configuration does. Their changes are not
+     * seen by the cache key of the filter.
+     */
+    private static void addIncludedFiles(final File file, final File baseDirectory, final Set<File> includedFiles) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), FILTER_FILE_ENCODING)) {
+            final char delimiter = AbstractConfiguration.getDefaultListDelimiter();
+            final PropertiesConfiguration.PropertiesReader properties = new PropertiesConfiguration.PropertiesReader(reader, delimiter);
+            while (properties.nextProperty()) {
+                if (PropertiesConfiguration.getInclude().equalsIgnoreCase(properties.getPropertyName())) {
+                    for (final String include : StringUtils.split(properties.getPropertyValue(), delimiter)) {
+                        File includedFile = new File(include.trim());
+                        if (!includedFile.isAbsolute()) {
+                            includedFile = new File(baseDirectory, include.trim());
+                        }
+                        includedFile = includedFile.getCanonicalFile();
+                        if (includedFile.isFile() && includedFiles.add(includedFile)) {
+                            addIncludedFiles(includedFile, baseDirectory, includedFiles);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rough number of bytes the properties parsed from a file take up in memory.
+     */
+    private static long estimateSize(final File file) {
+        return 256 + 4 * file.length();
+    }
+
+    /**
+     * Apply the filter over the base filters of its directory and those above, then interpolate
+     * ${} references across the merged layers just as Commons Configuration does for a single file.
+     */
+    private LoadedFilter resolveLayered(final FileInfo filter, final Map<String, FileInfo> baseFilters) throws ConfigurationException, IOException {
+        final Layer directoryLayer = getDirectoryLayer(getUnixSubDirectory(filter), baseFilters);
+        final Layer fileLayer = getFilterLayer(filter.getFile());
+        final Map<String, Object> merged = new LinkedHashMap<String, Object>(directoryLayer.properties);
+        merged.putAll(fileLayer.properties);
+        final Set<File> dependencies = new LinkedHashSet<File>(fileLayer.files);
+        dependencies.addAll(directoryLayer.files);
+        final BaseConfiguration config = new BaseConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        for (final Map.Entry<String, Object> property : merged.entrySet()) {
+            config.addProperty(property.getKey(), property.getValue());
+        }
+        config.setProperty(FILTER_SOURCE_KEY, getFilterSource(filter));
+        return new LoadedFilter(filter, toMap(ConfigurationConverter.getProperties(config)), Collections.unmodifiableSet(dependencies));
+    }
+
+    /**
+     * Merged base filters from the top of the filters directory down to the given relative sub-directory.
+     */
+    private Layer getDirectoryLayer(final String relativeSubDirectory, final Map<String, FileInfo> baseFilters) throws ConfigurationException, IOException {
+        Layer layer = directoryLayers.get(relativeSubDirectory);
+        if (layer != null) {
+            return layer;
+        }
+        final String parentDirectory = getParentDirectory(relativeSubDirectory);
+        final Map<String, Object> merged = new LinkedHashMap<String, Object>();
+        final Set<File> files = new LinkedHashSet<File>();
+        if (parentDirectory != null) {
+            final Layer parentLayer = getDirectoryLayer(parentDirectory, baseFilters);
+            merged.putAll(parentLayer.properties);
+            files.addAll(parentLayer.files);
+        }
+        final FileInfo baseFilter = baseFilters.get(relativeSubDirectory);
+        if (baseFilter != null) {
+            final Layer baseLayer = getFilterLayer(baseFilter.getFile());
+            merged.putAll(baseLayer.properties);
+            files.addAll(baseLayer.files);
+        }
+        layer = new Layer(Collections.unmodifiableMap(merged), Collections.unmodifiableSet(files));
+        directoryLayers.put(relativeSubDirectory, layer);
+        return layer;
+    }
+
+    /**
+     * Properties defined by a filter over those of the files it includes, directly or through other
+     * includes, each resolved against the directory of the filter.
+     */
+    private Layer getFilterLayer(final File filterFile) throws ConfigurationException, IOException {
+        return getFileLayer(filterFile, filterFile.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Properties defined by a file over those of the files it includes, resolved against the given
+     * directory, parsed only once however many filters in that directory build on it.
+     */
+    private Layer getFileLayer(final File file, final File includeDirectory) throws ConfigurationException, IOException {
+        final File canonicalFile = file.getCanonicalFile();
+        final List<File> layerKey = Arrays.asList(includeDirectory, canonicalFile);
+        Layer layer = fileLayers.get(layerKey);
+        if (layer != null) {
+            return layer;
+        }
+        if (!filesBeingLoaded.add(canonicalFile)) {
+            throw new ConfigurationException("Cyclic include of filter " + canonicalFile);
+        }
+        final ParsedFile parsedFile = parseFile(canonicalFile);
+        final Map<String, Object> merged = new LinkedHashMap<String, Object>();
+        final Set<File> files = new LinkedHashSet<File>();
+        files.add(canonicalFile);
+        for (final String include : parsedFile.includes) {
+            File includedFile = new File(include);
+            if (!includedFile.isAbsolute()) {
+                includedFile = new File(includeDirectory, include);
+            }
+            if (!includedFile.isFile()) {
+                throw new ConfigurationException("Cannot resolve include file " + include + " in " + canonicalFile);
+            }
+            final Layer includedLayer = getFileLayer(includedFile, includeDirectory);
+            merged.putAll(includedLayer.properties);
+            files.addAll(includedLayer.files);
+        }
+        merged.putAll(parsedFile.properties);
+        filesBeingLoaded.remove(canonicalFile);
+        layer = new Layer(Collections.unmodifiableMap(merged), Collections.unmodifiableSet(files));
+        fileLayers.put(layerKey, layer);
+        return layer;
+    }
+
+    /**
+     * Properties defined in the file itself, in file order, and the files it includes, from the
+     * cache if the file is unchanged since it was last parsed.
+     */
+    private ParsedFile parseFile(final File canonicalFile) throws IOException {
+        final ResolutionCache.Key key = cache == null ? null : ResolutionCache.keyFor("filterLayer", canonicalFile, FILTER_FILE_ENCODING);
+        if (key != null) {
+            final ParsedFile cached = cache.get(key, ParsedFile.class);
+            statistics.cacheLookup(cached != null);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final BaseConfiguration config = new BaseConfiguration();
+        final List<String> includes = new ArrayList<String>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(canonicalFile), FILTER_FILE_ENCODING)) {
+            final PropertiesConfiguration.PropertiesReader properties = new PropertiesConfiguration.PropertiesReader(reader, config.getListDelimiter());
+            while (properties.nextProperty()) {
+                if (PropertiesConfiguration.getInclude().equalsIgnoreCase(properties.getPropertyName())) {
+                    for (final String include : StringUtils.split(properties.getPropertyValue(), config.getListDelimiter())) {
+                        includes.add(include.trim());
+                    }
+                } else {
+                    config.addProperty(properties.getPropertyName(), properties.getPropertyValue());
+                }
+            }
+        }
+        statistics.filterParsed(canonicalFile.length());
+        final Map<String, Object> parsed = new LinkedHashMap<String, Object>();
+        for (final String name : getKeys(config)) {
+            final Object value = config.getProperty(name);
+            parsed.put(name, value instanceof List ? Collections.unmodifiableList(new ArrayList<Object>((List<?>) value)) : value);
+        }
+        final ParsedFile parsedFile = new ParsedFile(Collections.unmodifiableMap(parsed), Collections.unmodifiableList(includes));
+        if (key != null) {
+            cache.put(key, parsedFile, estimateSize(canonicalFile));
+        }
+        return parsedFile;
+    }
+
+    private static List<String> getKeys(final AbstractConfiguration config) {
+        final List<String> keys = new ArrayList<String>();
+        for (final Iterator<String> iterator = config.getKeys(); iterator.hasNext(); ) {
+            keys.add(iterator.next());
+        }
+        return keys;
+    }
+
+    private static String getUnixSubDirectory(final FileInfo filter) {
+        return FilenameUtils.separatorsToUnix(filter.getRelativeSubDirectory());
+    }
+
+    /**
+     * Relative sub-directory one level up, e.g. "/a/b/" gives "/a/", or null at the top.
+     */
+    private static String getParentDirectory(final String relativeSubDirectory) {
+        final String trimmed = StringUtils.removeEnd(relativeSubDirectory, "/");
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        return trimmed.substring(0, trimmed.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * filter.source=/relative/sub/dir/filenameNoExtension
+     */
+    static String getFilterSource(final FileInfo filter) {
+        return FilenameUtils.separatorsToUnix(filter.getRelativeSubDirectory() + filter.getNameWithoutExtension());
+    }
+
+    private static Map<String, String> toMap(final Properties properties) {
+        final Map<String, String> resolved = new HashMap<String, String>(properties.size() * 2);
+        for (final String key : properties.stringPropertyNames()) {
+            resolved.put(key, properties.getProperty(key));
+        }
+        return PropertyTable.copyOf(resolved);
+    }
+
+    /**
+     * Properties of one or more merged filter files and the canonical files they came from.
+     */
+    private static class Layer {
+
+        private final Map<String, Object> properties;
+        private final Set<File> files;
+
+        Layer(final Map<String, Object> properties, final Set<File> files) {
+            this.properties = properties;
+            this.files = files;
+        }
+    }
+
+    /**
+     * A filter file as parsed, before its includes are applied or its values interpolated.
+     */
+    private static class ParsedFile {
+
+        private final Map<String, Object> properties;
+        private final List<String> includes;
+
+        ParsedFile(final Map<String, Object> properties, final List<String> includes) {
+            this.properties = properties;
+            this.includes = includes;
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of generating one filter and template pair, filled in by the generating thread and only read
+ * once its task completes.
+ */
+class GeneratedConfig {
+
+    final LoadedTemplate template;
+    final LoadedFilter filter;
+    final Path outputFile;
+    final String relativeOutputPath;
+    byte[] output;
+    boolean written;
+    long bytesGenerated;
+    /** SHA-256 of the generated bytes when deduplicating, null when only the output file holds them. */
+    String contentHash;
+    long renderNanos;
+    long writeNanos;
+    /** Null unless the render memo was looked up. */
+    Boolean renderMemoHit;
+
+    GeneratedConfig(final LoadedTemplate template, final LoadedFilter filter, final Path outputFile, final String relativeOutputPath) {
+        this.template = template;
+        this.filter = filter;
+        this.outputFile = outputFile;
+        this.relativeOutputPath = relativeOutputPath;
+    }
+
+    void recordTimings(final GenerationStatistics statistics) {
+        statistics.stageCompleted(GenerationStatistics.Stage.RENDER, renderNanos);
+        statistics.stageCompleted(GenerationStatistics.Stage.WRITE, writeNanos);
+        final long generationNanos = renderNanos + writeNanos;
+        if (template.isVerbatim()) {
+            statistics.fileCopied();
+        }
+        if (renderMemoHit != null) {
+            statistics.renderMemoLookup(renderMemoHit);
+        }
+        statistics.templateTime(template.getFileInfo(), generationNanos);
+        statistics.filterTime(filter.getFileInfo(), generationNanos);
+    }
+
+}
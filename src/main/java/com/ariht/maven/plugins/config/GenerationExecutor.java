@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Runs independent generation tasks either on the calling thread or on a bounded pool.
+ *
+ * Results are always handed back in the order the tasks were given so log output stays
+ * deterministic, and the first task to fail stops any task that has not yet started.
+ */
+public class GenerationExecutor {
+
+    /**
+     * Receives each task result on the calling thread, in task order.
+     */
+    public interface ResultHandler<T> {
+        void handle(T result) throws Exception;
+    }
+
+    private final int threads;
+
+    public GenerationExecutor(final int threads) {
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Parse a thread count using the same syntax as Maven's -T option, e.g. "4" or "1.5C"
+     * where the C suffix multiplies by the number of available processors.
+     */
+    public static int parseThreadCount(final String threads) {
+        if (StringUtils.isBlank(threads)) {
+            return 1;
+        }
+        final String value = threads.trim();
+        final int count;
+        try {
+            if (StringUtils.endsWithIgnoreCase(value, "C")) {
+                final float perCore = Float.parseFloat(value.substring(0, value.length() - 1));
+                count = (int) Math.ceil(perCore * Runtime.getRuntime().availableProcessors());
+            } else {
+                count = Integer.parseInt(value);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid threads value '" + threads + "', expected e.g. 4 or 1C", e);
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid threads value '" + threads + "', must resolve to at least one thread");
+        }
+        return count;
+    }
+
+    public <T> void execute(final List<? extends Callable<T>> tasks, final ResultHandler<T> handler) throws Exception {
+        if (threads == 1 || tasks.size() < 2) {
+            for (final Callable<T> task : tasks) {
+                handler.handle(task.call());
+            }
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), new GenerationThreadFactory());
+        final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+        try {
+            // Only keep a small window of tasks queued so finished results don't pile up in memory
+            // while an earlier, slower task holds back in-order delivery.
+            final int window = threads * 2;
+            final Deque<Future<T>> pending = new ArrayDeque<Future<T>>(window);
+            final Iterator<? extends Callable<T>> remaining = tasks.iterator();
+            while (remaining.hasNext() && pending.size() < window) {
+                pending.add(executor.submit(new FailFastTask<T>(remaining.next(), firstFailure)));
+            }
+            while (!pending.isEmpty() && firstFailure.get() == null) {
+                final T result;
+                try {
+                    result = pending.poll().get();
+                } catch (ExecutionException e) {
+                    firstFailure.compareAndSet(null, e.getCause());
+                    break;
+                }
+                if (firstFailure.get() != null) {
+                    break;
+                }
+                if (remaining.hasNext()) {
+                    pending.add(executor.submit(new FailFastTask<T>(remaining.next(), firstFailure)));
+                }
+                handler.handle(result);
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        final Throwable failure = firstFailure.get();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (Exception) failure;
+        }
+    }
+
+    /**
+     * Skips work once any other task has failed and records the failure that came first, errors
+     * included so they fail the execution just as they would on the calling thread.
+     */
+    private static class FailFastTask<T> implements Callable<T> {
+
+        private final Callable<T> task;
+        private final AtomicReference<Throwable> firstFailure;
+
+        FailFastTask(final Callable<T> task, final AtomicReference<Throwable> firstFailure) {
+            this.task = task;
+            this.firstFailure = firstFailure;
+        }
+
+        public T call() throws Exception {
+            if (firstFailure.get() != null) {
+                return null;
+            }
+            try {
+                return task.call();
+            } catch (Exception | Error e) {
+                firstFailure.compareAndSet(null, e);
+                throw e;
+            }
+        }
+    }
+
+    private static class GenerationThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "config-processor-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Counts the work done during a single plugin execution, and times each stage of it, so it can be
+ * summarised in the build log or written out as JSON. Only ever updated from the mojo's own thread.
+ */
+public class GenerationStatistics {
+
+    /**
+     * Stages of an execution in the order they run. Rendering and writing happen per generated file,
+     * possibly on several threads, so their times are summed over all files while the generate stage
+     * is the wall time they took together.
+     */
+    public enum Stage {
+        SCAN, FILTERS, TEMPLATES, PLAN, MKDIR, GENERATE, RENDER, WRITE, PRUNE;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Map<Stage, Long> stageNanos = new EnumMap<Stage, Long>(Stage.class);
+    private final Map<String, Long> templateNanos = new HashMap<String, Long>();
+    private final Map<String, Long> filterNanos = new HashMap<String, Long>();
+    private long elapsedNanos;
+    private long directoriesScanned;
+    private long bytesGenerated;
+    private long bytesWritten;
+    private long cacheHits;
+    private long cacheMisses;
+
+    private long templatesRead;
+    private long templateBytesRead;
+    private long filtersParsed;
+    private long filterBytesRead;
+    private long filesGenerated;
+    private long filesWritten;
+    private long filesUpToDate;
+    private long filesCopied;
+    private long filesDeduplicated;
+    private long filesLinked;
+    private long bytesSaved;
+    private long renderMemoHits;
+    private long renderMemoMisses;
+    private long outputsDeleted;
+
+    public void templateRead(final long bytes) {
+        templatesRead++;
+        templateBytesRead += bytes;
+    }
+
+    public void filterParsed(final long bytes) {
+        filtersParsed++;
+        filterBytesRead += bytes;
+    }
+
+    public void fileGenerated(final boolean written) {
+        filesGenerated++;
+        if (written) {
+            filesWritten++;
+        }
+    }
+
+    /**
+     * Time taken by a stage, added to any time already recorded for it.
+     */
+    public void stageCompleted(final Stage stage, final long nanos) {
+        final Long previous = stageNanos.get(stage);
+        stageNanos.put(stage, previous == null ? nanos : previous + nanos);
+    }
+
+    public void directoriesScanned(final long count) {
+        directoriesScanned += count;
+    }
+
+    /**
+     * Time spent loading, compiling or rendering a template.
+     */
+    public void templateTime(final FileInfo template, final long nanos) {
+        addTime(templateNanos, template, nanos);
+    }
+
+    /**
+     * Time spent parsing and resolving a filter, or rendering templates with it.
+     */
+    public void filterTime(final FileInfo filter, final long nanos) {
+        addTime(filterNanos, filter, nanos);
+    }
+
+    public void bytesGenerated(final long generated, final boolean written) {
+        bytesGenerated += generated;
+        if (written) {
+            bytesWritten += generated;
+        }
+    }
+
+    /**
+     * Marks the end of the execution, everything recorded afterwards is not part of the elapsed time.
+     */
+    public void finished() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * A filter or template looked up in the {@link ResolutionCache}.
+     */
+    public void cacheLookup(final boolean hit) {
+        if (hit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+    }
+
+    /**
+     * A template rendered in memory looked up in the {@link RenderMemo}, a hit when its output was reused.
+     */
+    public void renderMemoLookup(final boolean hit) {
+        if (hit) {
+            renderMemoHits++;
+        } else {
+            renderMemoMisses++;
+        }
+    }
+
+    public void fileUpToDate() {
+        filesUpToDate++;
+    }
+
+    /**
+     * A generated file checked for deduplication, linked if it had the same content as an earlier one.
+     */
+    public void outputDeduplicated(final boolean linked, final long bytes) {
+        filesDeduplicated++;
+        if (linked) {
+            filesLinked++;
+            bytesSaved += bytes;
+        }
+    }
+
+    /**
+     * A generated file copied from its template as it is, without substitution.
+     */
+    public void fileCopied() {
+        filesCopied++;
+    }
+
+    public void outputsDeleted(final long count) {
+        outputsDeleted += count;
+    }
+
+    public long getTemplatesRead() {
+        return templatesRead;
+    }
+
+    public long getTemplateBytesRead() {
+        return templateBytesRead;
+    }
+
+    public long getFiltersParsed() {
+        return filtersParsed;
+    }
+
+    public long getFilterBytesRead() {
+        return filterBytesRead;
+    }
+
+    public long getFilesGenerated() {
+        return filesGenerated;
+    }
+
+    public long getFilesWritten() {
+        return filesWritten;
+    }
+
+    public long getFilesUnchanged() {
+        return filesGenerated - filesWritten;
+    }
+
+    public long getFilesUpToDate() {
+        return filesUpToDate;
+    }
+
+    public long getFilesCopied() {
+        return filesCopied;
+    }
+
+    public long getRenderMemoHits() {
+        return renderMemoHits;
+    }
+
+    public long getRenderMemoMisses() {
+        return renderMemoMisses;
+    }
+
+    public long getFilesLinked() {
+        return filesLinked;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Outputs checked for deduplication per distinct file stored, 1 when nothing was shared.
+     */
+    public double getDeduplicationRatio() {
+        return filesDeduplicated == 0 ? 1 : filesDeduplicated / (double) (filesDeduplicated - filesLinked);
+    }
+
+    public long getOutputsDeleted() {
+        return outputsDeleted;
+    }
+
+    public long getBytesRead() {
+        return templateBytesRead + filterBytesRead;
+    }
+
+    public long getBytesGenerated() {
+        return bytesGenerated;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getDirectoriesScanned() {
+        return directoriesScanned;
+    }
+
+    public long getStageNanos(final Stage stage) {
+        final Long nanos = stageNanos.get(stage);
+        return nanos == null ? 0 : nanos;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getFilesPerSecond() {
+        return elapsedNanos == 0 ? 0 : filesGenerated * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Relative paths of the templates that took longest, slowest first.
+     */
+    public List<Map.Entry<String, Long>> getSlowestTemplates(final int count) {
+        return slowest(templateNanos, count);
+    }
+
+    /**
+     * Relative paths of the filters that took longest, slowest first.
+     */
+    public List<Map.Entry<String, Long>> getSlowestFilters(final int count) {
+        return slowest(filterNanos, count);
+    }
+
+    /**
+     * Multi-line breakdown of where the time went, to follow the {@link #toString()} summary.
+     */
+    public List<String> getTimingSummary(final int slowestCount) {
+        final List<String> lines = new ArrayList<String>();
+        final StringBuilder stages = new StringBuilder("Stage times:");
+        for (final Stage stage : Stage.values()) {
+            stages.append(' ').append(stage.getName()).append(' ').append(formatMillis(getStageNanos(stage))).append(" ms,");
+        }
+        lines.add(stages.append(" total ").append(formatMillis(elapsedNanos)).append(" ms").toString());
+        lines.add(String.format(Locale.ROOT, "Throughput: %.1f files/sec, %d bytes in, %d bytes out (%d bytes written), %d directories scanned",
+                getFilesPerSecond(), getBytesRead(), bytesGenerated, bytesWritten, directoriesScanned));
+        if (filesDeduplicated > 0) {
+            lines.add(String.format(Locale.ROOT, "Deduplication: %d outputs stored as %d distinct files (%.2f:1), %d bytes saved",
+                    filesDeduplicated, filesDeduplicated - filesLinked, getDeduplicationRatio(), bytesSaved));
+        }
+        if (slowestCount > 0) {
+            addSlowest(lines, "Slowest templates:", getSlowestTemplates(slowestCount));
+            addSlowest(lines, "Slowest filters:", getSlowestFilters(slowestCount));
+        }
+        return lines;
+    }
+
+    /**
+     * Write everything recorded as a JSON document, times in milliseconds, so builds can be compared.
+     */
+    public void writeJson(final File file, final int slowestCount) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(toJson(slowestCount));
+        }
+    }
+
+    String toJson(final int slowestCount) {
+        final StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"elapsedMillis\": ").append(formatMillis(elapsedNanos)).append(",\n");
+        json.append("  \"filesPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", getFilesPerSecond())).append(",\n");
+        appendJsonField(json, "templatesRead", templatesRead);
+        appendJsonField(json, "filtersParsed", filtersParsed);
+        appendJsonField(json, "directoriesScanned", directoriesScanned);
+        appendJsonField(json, "filesGenerated", filesGenerated);
+        appendJsonField(json, "filesWritten", filesWritten);
+        appendJsonField(json, "filesUnchanged", getFilesUnchanged());
+        appendJsonField(json, "filesUpToDate", filesUpToDate);
+        appendJsonField(json, "filesCopied", filesCopied);
+        appendJsonField(json, "renderMemoHits", renderMemoHits);
+        appendJsonField(json, "renderMemoMisses", renderMemoMisses);
+        appendJsonField(json, "filesLinked", filesLinked);
+        appendJsonField(json, "bytesSaved", bytesSaved);
+        json.append("  \"deduplicationRatio\": ").append(String.format(Locale.ROOT, "%.2f", getDeduplicationRatio())).append(",\n");
+        appendJsonField(json, "outputsDeleted", outputsDeleted);
+        appendJsonField(json, "bytesRead", getBytesRead());
+        appendJsonField(json, "bytesGenerated", bytesGenerated);
+        appendJsonField(json, "bytesWritten", bytesWritten);
+        appendJsonField(json, "cacheHits", cacheHits);
+        appendJsonField(json, "cacheMisses", cacheMisses);
+        json.append("  \"stageMillis\": {");
+        for (final Stage stage : Stage.values()) {
+            json.append(stage.ordinal() == 0 ? "\n" : ",\n");
+            json.append("    \"").append(stage.getName()).append("\": ").append(formatMillis(getStageNanos(stage)));
+        }
+        json.append("\n  },\n");
+        appendJsonSlowest(json, "slowestTemplates", getSlowestTemplates(slowestCount));
+        json.append(",\n");
+        appendJsonSlowest(json, "slowestFilters", getSlowestFilters(slowestCount));
+        return json.append("\n}\n").toString();
+    }
+
+    private static void appendJsonField(final StringBuilder json, final String name, final long value) {
+        json.append("  \"").append(name).append("\": ").append(value).append(",\n");
+    }
+
+    private static void appendJsonSlowest(final StringBuilder json, final String name, final List<Map.Entry<String, Long>> slowest) {
+        json.append("  \"").append(name).append("\": [");
+        for (int i = 0; i < slowest.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    { \"path\": \"").append(escapeJson(slowest.get(i).getKey()))
+                .append("\", \"millis\": ").append(formatMillis(slowest.get(i).getValue())).append(" }");
+        }
+        json.append(slowest.isEmpty() ? "]" : "\n  ]");
+    }
+
+    static String escapeJson(final String value) {
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void addSlowest(final List<String> lines, final String title, final List<Map.Entry<String, Long>> slowest) {
+        if (slowest.isEmpty()) {
+            return;
+        }
+        final StringBuilder line = new StringBuilder(title);
+        for (final Map.Entry<String, Long> entry : slowest) {
+            line.append(' ').append(entry.getKey()).append(" (").append(formatMillis(entry.getValue())).append(" ms),");
+        }
+        lines.add(StringUtils.removeEnd(line.toString(), ","));
+    }
+
+    private static void addTime(final Map<String, Long> times, final FileInfo fileInfo, final long nanos) {
+        final String path = fileInfo.getRelativePath();
+        final Long previous = times.get(path);
+        times.put(path, previous == null ? nanos : previous + nanos);
+    }
+
+    private static List<Map.Entry<String, Long>> slowest(final Map<String, Long> times, final int count) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(times.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+                final int byTime = b.getValue().compareTo(a.getValue());
+                return byTime != 0 ? byTime : a.getKey().compareTo(b.getKey());
+            }
+        });
+        return entries.subList(0, Math.max(0, Math.min(count, entries.size())));
+    }
+
+    private static String formatMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder summary = new StringBuilder(MessageFormat.format(
+                "Generated {0} files ({1} written, {2} unchanged) from {3} templates read and {4} filters parsed ({5} bytes read)",
+                String.valueOf(filesGenerated), String.valueOf(filesWritten), String.valueOf(getFilesUnchanged()),
+                String.valueOf(templatesRead), String.valueOf(filtersParsed), String.valueOf(getBytesRead())));
+        if (filesUpToDate > 0 || outputsDeleted > 0) {
+            summary.append(MessageFormat.format(", {0} files up to date, {1} stale files deleted",
+                    String.valueOf(filesUpToDate), String.valueOf(outputsDeleted)));
+        }
+        if (filesCopied > 0) {
+            summary.append(MessageFormat.format(", {0} copied as is", String.valueOf(filesCopied)));
+        }
+        if (renderMemoHits > 0 || renderMemoMisses > 0) {
+            final long lookups = renderMemoHits + renderMemoMisses;
+            summary.append(String.format(Locale.ROOT, ", %d of %d renders reused (%.1f%%)",
+                    renderMemoHits, lookups, 100.0 * renderMemoHits / lookups));
+        }
+        if (cacheHits > 0 || cacheMisses > 0) {
+            summary.append(MessageFormat.format(", {0} cache hits and {1} misses",
+                    String.valueOf(cacheHits), String.valueOf(cacheMisses)));
+        }
+        return summary.toString();
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Remembers, for every generated output, a fingerprint of the template and filter it was generated
+ * from so an incremental build only regenerates outputs whose inputs have changed.
+ *
+ * Kept as a small text file in the output directory: a version line, a hash of the plugin
+ * configuration and then one "fingerprint TAB relative/output/path" line per output.
+ */
+public class IncrementalState {
+
+    public static final String STATE_FILENAME = ".config-processor.state";
+
+    private static final String VERSION = "config-processor-state 1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char SEPARATOR = '\t';
+
+    private final String configurationHash;
+    private final Map<String, String> fingerprints = new TreeMap<String, String>();
+
+    public IncrementalState(final String configurationHash) {
+        this.configurationHash = configurationHash;
+    }
+
+    /**
+     * Read previous state, or null when there is none or it was written by a different
+     * version or plugin configuration - in which case everything must be regenerated.
+     */
+    public static IncrementalState load(final File stateFile, final String configurationHash) throws IOException {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), UTF_8))) {
+            if (!VERSION.equals(reader.readLine()) || !configurationHash.equals(reader.readLine())) {
+                return null;
+            }
+            final IncrementalState state = new IncrementalState(configurationHash);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(SEPARATOR);
+                if (separator < 1) {
+                    return null;
+                }
+                state.put(line.substring(separator + 1), line.substring(0, separator));
+            }
+            return state;
+        }
+    }
+
+    public void save(final File stateFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(stateFile), UTF_8))) {
+            writer.write(VERSION);
+            writer.newLine();
+            writer.write(configurationHash);
+            writer.newLine();
+            for (final Map.Entry<String, String> entry : fingerprints.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                writer.newLine();
+            }
+        }
+    }
+
+    public void put(final String relativeOutputPath, final String fingerprint) {
+        if (StringUtils.contains(relativeOutputPath, '\n')) {
+            throw new IllegalArgumentException("Output path cannot be recorded: " + relativeOutputPath);
+        }
+        fingerprints.put(relativeOutputPath, fingerprint);
+    }
+
+    public String getFingerprint(final String relativeOutputPath) {
+        return fingerprints.get(relativeOutputPath);
+    }
+
+    public Set<String> getOutputs() {
+        return Collections.unmodifiableSet(fingerprints.keySet());
+    }
+
+}
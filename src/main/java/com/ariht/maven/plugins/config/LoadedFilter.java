@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * Filter resolved once into an unmodifiable map of properties, ready to be substituted
+ * into every template.
+ */
+public class LoadedFilter {
+
+    private final FileInfo fileInfo;
+    private final Map<String, String> properties;
+    private final String propertiesHash;
+    private final Map<String, Set<String>> unresolvedReferences;
+    private final Set<File> dependencies;
+
+    public LoadedFilter(final FileInfo fileInfo, final Map<String, String> properties) {
+        this(fileInfo, properties, Collections.singleton(fileInfo.getFile().getAbsoluteFile()));
+    }
+
+    /**
+     * @param dependencies canonical files the properties were resolved from, i.e. the filter itself
+     *                     and any files it includes or is layered on
+     */
+    public LoadedFilter(final FileInfo fileInfo, final Map<String, String> properties, final Set<File> dependencies) {
+        this.fileInfo = fileInfo;
+        this.properties = properties;
+        this.dependencies = dependencies;
+        this.propertiesHash = Digests.sha256Hex(properties);
+        this.unresolvedReferences = findUnresolvedReferences(properties);
+    }
+
+    /**
+     * Nested ${} references are already resolved when the filter is loaded, so any still in a value
+     * either refer to keys that are not defined or were escaped as $${} in the filter.
+     */
+    private static Map<String, Set<String>> findUnresolvedReferences(final Map<String, String> properties) {
+        final Map<String, Set<String>> unresolved = new HashMap<String, Set<String>>();
+        for (final Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getValue() != null && property.getValue().contains(TemplateCompiler.PREFIX)) {
+                final Set<String> references = TemplateCompiler.compile(property.getValue()).getReferencedKeys();
+                if (!references.isEmpty()) {
+                    unresolved.put(property.getKey(), references);
+                }
+            }
+        }
+        return unresolved.isEmpty() ? Collections.<String, Set<String>>emptyMap() : Collections.unmodifiableMap(unresolved);
+    }
+
+    public FileInfo getFileInfo() {
+        return fileInfo;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * SHA-256 of the resolved properties, independent of their order in the filter file.
+     */
+    public String getPropertiesHash() {
+        return propertiesHash;
+    }
+
+    /**
+     * Keys referenced by place-holders still in the value of each key that has any, whether defined or not.
+     */
+    public Map<String, Set<String>> getUnresolvedReferences() {
+        return unresolvedReferences;
+    }
+
+    /**
+     * Files that a change to means the filter has to be resolved again.
+     */
+    public Set<File> getDependencies() {
+        return dependencies;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.MULTI_LINE_STYLE).append("fileInfo", fileInfo).toString();
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.Set;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * Template read once from disk and held in memory, along with its compiled form, so it can be
+ * applied to every filter without re-reading or re-scanning the file.
+ */
+public class LoadedTemplate {
+
+    private final FileInfo fileInfo;
+    private final String content;
+    private final CompiledTemplate compiledTemplate;
+    private final String contentHash;
+    private final Set<String> referencedKeys;
+    private final boolean verbatim;
+
+    public LoadedTemplate(final FileInfo fileInfo, final String content, final CompiledTemplate compiledTemplate,
+                          final String contentHash, final Set<String> referencedKeys, final boolean verbatim) {
+        this.fileInfo = fileInfo;
+        this.content = content;
+        this.compiledTemplate = compiledTemplate;
+        this.contentHash = contentHash;
+        this.referencedKeys = referencedKeys;
+        this.verbatim = verbatim;
+    }
+
+    public FileInfo getFileInfo() {
+        return fileInfo;
+    }
+
+    /**
+     * Null when the template is too large to hold in memory and is streamed instead, or is copied verbatim.
+     */
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isStreamed() {
+        return content == null && !verbatim;
+    }
+
+    /**
+     * True when every filter generates exactly the bytes of the template file, because it is binary or
+     * has no place-holders, so it is copied rather than rendered.
+     */
+    public boolean isVerbatim() {
+        return verbatim;
+    }
+
+    /**
+     * Null when templates are substituted with the legacy {@link org.apache.commons.lang.text.StrSubstitutor}
+     * path or when the template is streamed.
+     */
+    public CompiledTemplate getCompiledTemplate() {
+        return compiledTemplate;
+    }
+
+    /**
+     * SHA-256 of the template file as read from disk.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Keys of the template's place-holders, or null when unknown because the template is streamed.
+     */
+    public Set<String> getReferencedKeys() {
+        return referencedKeys;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.MULTI_LINE_STYLE).append("fileInfo", fileInfo).toString();
+    }
+
+}
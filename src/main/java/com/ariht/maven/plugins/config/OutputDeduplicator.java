@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Stores each distinct generated file once: an output with the same content and permissions as one
+ * already seen is replaced by a hard link to it. Later runs that change the output write a new file
+ * and move it into place, which leaves the other links as they were.
+ *
+ * Where the file system cannot link, outputs are left as separate copies.
+ */
+public class OutputDeduplicator {
+
+    private final Log log;
+    private final Map<String, Path> firstByContent = new HashMap<String, Path>();
+
+    public OutputDeduplicator(final Log log) {
+        this.log = log;
+    }
+
+    /**
+     * @param contentHash SHA-256 of the output's content as already generated, or null to read it back
+     *                    from the output file
+     * @return true if the output is now a link to an earlier output with the same content
+     */
+    public boolean add(final Path output, final String contentHash) throws IOException {
+        final String contentKey = Digests.sha256Hex(contentHash != null ? contentHash : hash(output), getPermissions(output));
+        final Path first = firstByContent.get(contentKey);
+        if (first == null) {
+            firstByContent.put(contentKey, output);
+            return false;
+        }
+        if (Files.isSameFile(first, output)) {
+            return true;
+        }
+        final Path temporary = OutputWriter.temporaryFileFor(output);
+        try {
+            Files.createLink(temporary, first);
+            try {
+                Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Unable to link " + output + " to " + first + ": " + e.getMessage());
+            return false;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        log.debug("Linked : " + output + " to " + first);
+        return true;
+    }
+
+    private static String hash(final Path output) throws IOException {
+        final MessageDigest digest = Digests.newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(output), digest)) {
+            IOUtils.copyLarge(in, new NullOutputStream());
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    private static String getPermissions(final Path output) throws IOException {
+        try {
+            return String.valueOf(Files.getPosixFilePermissions(output));
+        } catch (UnsupportedOperationException e) {
+            return "";
+        }
+    }
+
+}
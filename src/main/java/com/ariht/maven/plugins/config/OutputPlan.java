@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Where generated config goes: filter-sub-dir/filter-name/template-sub-dir/template.name below the
+ * output directory. Each output directory is worked out once per filter and template sub-directory
+ * rather than once per file, and the distinct directories can then all be created in one pass.
+ */
+public class OutputPlan {
+
+    private static final String PATH_SEPARATOR = "/";
+
+    private final Path outputDirectory;
+    /** Relative output directory by filter and template sub-directory. */
+    private final Map<String, String> relativeDirectories = new HashMap<String, String>();
+    private final Map<String, Path> directories = new HashMap<String, Path>();
+
+    public OutputPlan(final String outputBasePath) {
+        try {
+            this.outputDirectory = Paths.get(outputBasePath).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid output path: " + outputBasePath, e);
+        }
+    }
+
+    /**
+     * Absolute, so it can be compared with other configured paths however each was given.
+     */
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Concatenate together the filter's directory with the template's - 'deploy' templates just go into the
+     * base path so only have the filter (i.e. the environment they are intended for). Uses '/' separators,
+     * ends with '/' and has no leading '/'.
+     */
+    public String getRelativeDirectory(final FileInfo template, final FileInfo filter) {
+        final String key = filter.getRelativeSubDirectory() + filter.getNameWithoutExtension() + '\0' + template.getRelativeSubDirectory();
+        String relativeDirectory = relativeDirectories.get(key);
+        if (relativeDirectory == null) {
+            final String outputPath = filter.getRelativeSubDirectory()
+                                    + filter.getNameWithoutExtension() + PATH_SEPARATOR
+                                    + template.getRelativeSubDirectory() + PATH_SEPARATOR;
+            relativeDirectory = StringUtils.removeStart(FilenameUtils.normalize(outputPath, true), PATH_SEPARATOR);
+            relativeDirectories.put(key, relativeDirectory);
+        }
+        return relativeDirectory;
+    }
+
+    public String getRelativePath(final FileInfo template, final FileInfo filter) {
+        return getRelativeDirectory(template, filter) + template.getFile().getName();
+    }
+
+    /**
+     * The output directory for a relative directory, the same instance every time it is asked for.
+     */
+    public Path getDirectory(final String relativeDirectory) {
+        Path directory = directories.get(relativeDirectory);
+        if (directory == null) {
+            directory = outputDirectory.resolve(relativeDirectory);
+            directories.put(relativeDirectory, directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Create the directories deepest first. Creating a directory also creates any of its parents that
+     * are missing, so the parents of directories already created are skipped without asking the file
+     * system whether they exist.
+     *
+     * @return the number of directories passed to the file system
+     */
+    public static int createDirectories(final Collection<Path> directories) throws IOException {
+        final List<Path> deepestFirst = new ArrayList<Path>(new HashSet<Path>(directories));
+        Collections.sort(deepestFirst, new Comparator<Path>() {
+            public int compare(final Path a, final Path b) {
+                final int byDepth = b.getNameCount() - a.getNameCount();
+                return byDepth != 0 ? byDepth : a.compareTo(b);
+            }
+        });
+        final Set<Path> created = new HashSet<Path>();
+        int createCalls = 0;
+        for (final Path directory : deepestFirst) {
+            if (created.contains(directory)) {
+                continue;
+            }
+            Files.createDirectories(directory);
+            createCalls++;
+            Path existing = directory;
+            while (existing != null && created.add(existing)) {
+                existing = existing.getParent();
+            }
+        }
+        return createCalls;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Removes files from the output directory that the current run no longer generates, along with
+ * any directories that leaves empty, so outputs can be updated in place rather than deleted up front.
+ */
+public class OutputPruner {
+
+    private final Log log;
+    private final File outputDirectory;
+
+    public OutputPruner(final Log log, final File outputDirectory) {
+        this.log = log;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Delete every file under the output directory whose relative path, using '/' separators,
+     * is not one of those given.
+     *
+     * @return number of files deleted
+     */
+    public int deleteAllExcept(final Set<String> relativePathsToKeep) throws IOException {
+        if (!outputDirectory.isDirectory()) {
+            return 0;
+        }
+        final Path root = outputDirectory.toPath();
+        final int[] deleted = new int[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                final String relativePath = FilenameUtils.separatorsToUnix(root.relativize(file).toString());
+                if (!relativePathsToKeep.contains(relativePath)) {
+                    log.debug("Deleting : " + file);
+                    Files.delete(file);
+                    deleted[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                if (!dir.equals(root) && isEmptyDirectory(dir)) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted[0];
+    }
+
+    /**
+     * Delete a single output, given its relative path, and any directories it leaves empty.
+     */
+    public void delete(final String relativePath) throws IOException {
+        File file = new File(outputDirectory, FilenameUtils.separatorsToSystem(relativePath));
+        if (file.exists()) {
+            log.debug("Deleting : " + file);
+            FileUtils.forceDelete(file);
+        }
+        file = file.getParentFile();
+        while (file != null && !file.equals(outputDirectory) && isEmptyDirectory(file.toPath())) {
+            FileUtils.forceDelete(file);
+            file = file.getParentFile();
+        }
+    }
+
+    private static boolean isEmptyDirectory(final Path dir) {
+        final String[] children = dir.toFile().list();
+        return children != null && children.length == 0;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Writes generated config only when it differs from what is already on disk, so unchanged
+ * outputs keep their modification time and downstream plugins see nothing new.
+ *
+ * Existing files are read in chunks rather than memory mapped, which on Windows would stop them
+ * being replaced. Changed files are written alongside and moved into place.
+ */
+public class OutputWriter {
+
+    private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
+
+    /** Two buffers per thread, enough to compare one file with another. */
+    private final ThreadLocal<ByteBuffer[]> compareBuffers = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[] {ByteBuffer.allocate(COMPARE_BUFFER_SIZE), ByteBuffer.allocate(COMPARE_BUFFER_SIZE)};
+        }
+    };
+
+    /**
+     * @return true if the file was written, false if it already had exactly this content.
+     */
+    public boolean write(final File target, final byte[] content) throws IOException {
+        if (hasContent(target, content)) {
+            return false;
+        }
+        final Path targetPath = target.toPath();
+        final Path temporary = temporaryFileFor(targetPath);
+        try {
+            Files.write(temporary, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            moveIntoPlace(temporary, targetPath);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return true;
+    }
+
+    /**
+     * True if the target exists with exactly the given content.
+     */
+    public boolean hasContent(final File target, final byte[] content) throws IOException {
+        if (!target.isFile() || target.length() != content.length) {
+            return false;
+        }
+        final ByteBuffer existing = compareBuffers.get()[0];
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            for (int position = 0; position < content.length; position += existing.limit()) {
+                if (!readChunk(channel, existing, content.length - position)
+                        || !existing.equals(ByteBuffer.wrap(content, position, existing.limit()))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Output too large to render in memory is streamed into this file first and then handed to
+     * {@link #commit(Path, File)}.
+     */
+    public Path createTemporaryFile(final File target) {
+        return temporaryFileFor(target.toPath());
+    }
+
+    /**
+     * Move a fully written temporary file into place unless the target already has the same content.
+     *
+     * @return true if the target was replaced, false if it already had exactly this content.
+     */
+    public boolean commit(final Path temporary, final File target) throws IOException {
+        try {
+            if (hasSameContent(temporary, target)) {
+                return false;
+            }
+            moveIntoPlace(temporary, target.toPath());
+            return true;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copy a file that needs no substitution channel to channel, so its content never passes through
+     * the heap, unless the target already has the same content.
+     *
+     * @return true if the target was written, false if it already had exactly this content.
+     */
+    public boolean copy(final File source, final File target) throws IOException {
+        if (hasSameContent(source.toPath(), target)) {
+            return false;
+        }
+        final Path targetPath = target.toPath();
+        final Path temporary = temporaryFileFor(targetPath);
+        try {
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                final long size = in.size();
+                for (long position = 0; position < size; ) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            moveIntoPlace(temporary, targetPath);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return true;
+    }
+
+    private boolean hasSameContent(final Path candidate, final File target) throws IOException {
+        final long size = Files.size(candidate);
+        if (!target.isFile() || target.length() != size) {
+            return false;
+        }
+        final ByteBuffer[] buffers = compareBuffers.get();
+        try (FileChannel candidateChannel = FileChannel.open(candidate, StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            for (long position = 0; position < size; position += buffers[0].limit()) {
+                if (!readChunk(candidateChannel, buffers[0], size - position) || !readChunk(targetChannel, buffers[1], size - position)
+                        || !buffers[1].equals(buffers[0])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fill the buffer with the next bytes of the channel, at most as many as remain to be compared,
+     * leaving it ready to read.
+     *
+     * @return false if the file ended early, i.e. it changed while being compared
+     */
+    private static boolean readChunk(final FileChannel channel, final ByteBuffer buffer, final long remaining) throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), remaining));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Hidden sibling of the target, created with default permissions like any other output.
+     */
+    static Path temporaryFileFor(final Path target) {
+        return target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    /**
+     * Replace the target keeping its existing permissions, e.g. when it was made executable.
+     */
+    static void moveIntoPlace(final Path source, final Path target) throws IOException {
+        if (Files.exists(target)) {
+            try {
+                Files.setPosixFilePermissions(source, Files.getPosixFilePermissions(target));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system so there are no permissions to keep
+            }
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
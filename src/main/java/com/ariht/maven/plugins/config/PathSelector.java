@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Selects relative paths, such as a filter's filter.source or a template's path below the templates
+ * directory, using a comma separated list of patterns. Patterns may be prefixed with "glob:" or
+ * "regex:" as for ignored files, otherwise they are globs. A blank selection selects everything.
+ *
+ * Commas inside {}, [] or (), or escaped with a backslash, belong to the pattern, e.g. "regex:env{1,2}"
+ * and "{dev,qa}/*" are each one pattern.
+ */
+public class PathSelector {
+
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final String REGEX_SYNTAX = "regex:";
+
+    private final String selection;
+    private final List<PathMatcher> patterns = new ArrayList<PathMatcher>();
+
+    public PathSelector(final String selection) {
+        this.selection = StringUtils.trimToEmpty(selection);
+        for (final String pattern : split(this.selection)) {
+            if (StringUtils.isNotBlank(pattern)) {
+                patterns.add(FileSystems.getDefault().getPathMatcher(toSyntaxAndPattern(pattern.trim())));
+            }
+        }
+    }
+
+    /**
+     * Split on the commas between patterns, leaving those that are part of a pattern.
+     */
+    private static List<String> split(final String selection) {
+        final List<String> patterns = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < selection.length(); i++) {
+            final char c = selection.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{' || c == '[' || c == '(') {
+                depth++;
+            } else if ((c == '}' || c == ']' || c == ')') && depth > 0) {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                patterns.add(selection.substring(start, i));
+                start = i + 1;
+            }
+        }
+        patterns.add(selection.substring(start));
+        return patterns;
+    }
+
+    private static String toSyntaxAndPattern(final String pattern) {
+        if (pattern.startsWith(GLOB_SYNTAX) || pattern.startsWith(REGEX_SYNTAX)) {
+            return pattern;
+        }
+        return GLOB_SYNTAX + StringUtils.removeStart(pattern, "/");
+    }
+
+    public boolean isSelectingAll() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * Whether the path, with '/' separators and with or without a leading '/', is selected.
+     */
+    public boolean matches(final String relativePath) {
+        if (patterns.isEmpty()) {
+            return true;
+        }
+        final String path = StringUtils.removeStart(relativePath, "/");
+        for (final PathMatcher pattern : patterns) {
+            if (pattern.matches(Paths.get(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return selection;
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Which place-holder keys each template references and which keys each filter defines, built from
+ * the loaded templates and filters so pairs can be checked with set operations rather than by
+ * rendering them. Streamed templates are never held in memory so their keys are unknown.
+ */
+public class PlaceholderIndex {
+
+    private final Map<String, SortedSet<String>> templatesByKey = new TreeMap<String, SortedSet<String>>();
+    private final SortedSet<String> definedKeys = new TreeSet<String>();
+
+    public PlaceholderIndex(final List<LoadedTemplate> templates, final List<LoadedFilter> filters) {
+        for (final LoadedTemplate template : templates) {
+            if (template.getReferencedKeys() == null) {
+                continue;
+            }
+            for (final String key : template.getReferencedKeys()) {
+                SortedSet<String> usedBy = templatesByKey.get(key);
+                if (usedBy == null) {
+                    usedBy = new TreeSet<String>();
+                    templatesByKey.put(key, usedBy);
+                }
+                usedBy.add(template.getFileInfo().getRelativePath());
+            }
+        }
+        for (final LoadedFilter filter : filters) {
+            definedKeys.addAll(filter.getProperties().keySet());
+        }
+        definedKeys.remove(FilterLoader.FILTER_SOURCE_KEY);
+    }
+
+    /**
+     * Keys the template would leave as raw ${} place-holders with this filter, either because the filter
+     * does not define them or because their values refer to keys it does not define. Null if unknown.
+     */
+    public static SortedSet<String> getUnresolvedKeys(final LoadedTemplate template, final LoadedFilter filter) {
+        if (template.getReferencedKeys() == null) {
+            return null;
+        }
+        final SortedSet<String> unresolved = new TreeSet<String>();
+        final Map<String, String> properties = filter.getProperties();
+        for (final String key : template.getReferencedKeys()) {
+            if (!properties.containsKey(key)) {
+                unresolved.add(key);
+            } else if (filter.getUnresolvedReferences().containsKey(key)) {
+                unresolved.addAll(filter.getUnresolvedReferences().get(key));
+            }
+        }
+        unresolved.removeAll(properties.keySet());
+        return unresolved;
+    }
+
+    /**
+     * Changes whenever the template or the value of any key it references changes, so a change to a
+     * key elsewhere in the filter does not regenerate it. Every key counts for a streamed template, and
+     * when a referenced value still holds a place-holder, e.g. from an escaped $${x}, as rendering
+     * substitutes that too.
+     */
+    public static String getFingerprint(final LoadedTemplate template, final LoadedFilter filter) {
+        if (template.getReferencedKeys() == null) {
+            return Digests.sha256Hex(template.getContentHash(), filter.getPropertiesHash());
+        }
+        final Map<String, String> referenced = new TreeMap<String, String>();
+        for (final String key : template.getReferencedKeys()) {
+            final String value = filter.getProperties().get(key);
+            if (value != null && value.contains(TemplateCompiler.PREFIX)) {
+                return Digests.sha256Hex(template.getContentHash(), filter.getPropertiesHash());
+            }
+            if (value != null) {
+                referenced.put(key, value);
+            }
+        }
+        return Digests.sha256Hex(template.getContentHash(), Digests.sha256Hex(referenced));
+    }
+
+    /**
+     * Relative paths of the templates referencing each key, by key.
+     */
+    public Map<String, SortedSet<String>> getTemplatesByKey() {
+        return templatesByKey;
+    }
+
+    /**
+     * Keys defined by some filter that no template references.
+     */
+    public SortedSet<String> getUnusedKeys() {
+        final SortedSet<String> unused = new TreeSet<String>(definedKeys);
+        unused.removeAll(templatesByKey.keySet());
+        return unused;
+    }
+
+    /**
+     * Write the key to template usage, and the keys no template uses, as a JSON document.
+     */
+    public void writeReport(final File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        final StringBuilder json = new StringBuilder("{\n  \"templatesByKey\": {");
+        boolean first = true;
+        for (final Map.Entry<String, SortedSet<String>> usage : templatesByKey.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    \"").append(GenerationStatistics.escapeJson(usage.getKey())).append("\": ");
+            appendJsonArray(json, usage.getValue());
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n  },\n").append("  \"unusedKeys\": ");
+        appendJsonArray(json, getUnusedKeys());
+        json.append("\n}\n");
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private static void appendJsonArray(final StringBuilder json, final Set<String> values) {
+        json.append('[');
+        boolean first = true;
+        for (final String value : values) {
+            json.append(first ? "" : ", ").append('"').append(GenerationStatistics.escapeJson(value)).append('"');
+            first = false;
+        }
+        json.append(']');
+    }
+
+}
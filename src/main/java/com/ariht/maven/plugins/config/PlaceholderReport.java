@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The JSON report of which templates reference each place-holder key, written to a configured file
+ * that may be inside the output directory, in which case pruning must leave it alone.
+ */
+public class PlaceholderReport {
+
+    private final Log log;
+    private final Path reportFile;
+
+    public PlaceholderReport(final Log log, final String reportFile) {
+        this.log = log;
+        this.reportFile = Paths.get(reportFile).toAbsolutePath().normalize();
+    }
+
+    public Path getReportFile() {
+        return reportFile;
+    }
+
+    public void write(final List<LoadedTemplate> templates, final List<LoadedFilter> filters) throws IOException {
+        log.debug("Writing placeholder report to : " + reportFile);
+        new PlaceholderIndex(templates, filters).writeReport(reportFile.toFile());
+    }
+
+    /**
+     * Files to keep when pruning, plus this report if it is written into the output directory.
+     */
+    public Set<String> keep(final Set<String> filesToKeep, final Path outputDirectory) {
+        if (!reportFile.startsWith(outputDirectory)) {
+            return filesToKeep;
+        }
+        final Set<String> withReport = new HashSet<String>(filesToKeep);
+        withReport.add(FilenameUtils.separatorsToUnix(outputDirectory.relativize(reportFile).toString()));
+        return withReport;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of resolved filter properties held in two flat arrays with open addressing, so the
+ * lookups made for every place-holder of every template take no locks and allocate nothing.
+ */
+public final class PropertyTable extends AbstractMap<String, String> {
+
+    private final String[] keys;
+    private final String[] values;
+    private final int mask;
+    private final int size;
+
+    private PropertyTable(final Map<String, String> properties) {
+        int capacity = 2;
+        while (capacity < properties.size() * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+        this.size = properties.size();
+        for (final Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getKey() == null || property.getValue() == null) {
+                throw new IllegalArgumentException("Null key or value in properties: " + property);
+            }
+            int index = indexFor(property.getKey());
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = property.getKey();
+            values[index] = property.getValue();
+        }
+    }
+
+    /**
+     * @param properties keys and values, none of them null, that must be distinct as in any map
+     */
+    public static PropertyTable copyOf(final Map<String, String> properties) {
+        return properties instanceof PropertyTable ? (PropertyTable) properties : new PropertyTable(properties);
+    }
+
+    @Override
+    public String get(final Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        for (int index = indexFor((String) key); keys[index] != null; index = (index + 1) & mask) {
+            if (keys[index].equals(key)) {
+                return values[index];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexFor(final String key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+        private int next = advance(0);
+
+        private int advance(final int from) {
+            int index = from;
+            while (index < keys.length && keys[index] == null) {
+                index++;
+            }
+            return index;
+        }
+
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(keys[next], values[next]);
+            next = advance(next + 1);
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Properties are immutable");
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Rendered output keyed by the fingerprint of a template's content and the values of only the keys it
+ * references, so a template is rendered once for all the filters that agree on those values and the
+ * bytes are reused for the rest.
+ *
+ * Bounded by the bytes held, evicting the least recently used output first, and synchronized as
+ * templates are rendered on several threads. Outputs must not be modified once added.
+ */
+public class RenderMemo {
+
+    private final LinkedHashMap<String, byte[]> outputs = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    private final long maximumSize;
+    private long size;
+
+    public RenderMemo(final long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * True if the output depends only on the template and the values of the keys it references. A value
+     * still containing a place-holder after the filter was resolved may bring in keys the template does
+     * not reference, so is never memoised, nor are templates that are not rendered in memory.
+     */
+    public static boolean canMemoize(final LoadedTemplate template, final LoadedFilter filter) {
+        if (template.getContent() == null || template.getReferencedKeys() == null) {
+            return false;
+        }
+        for (final String key : template.getReferencedKeys()) {
+            final String value = filter.getProperties().get(key);
+            if (value != null && value.contains(TemplateCompiler.PREFIX)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the output rendered for the fingerprint, or null if not yet rendered or evicted
+     */
+    public synchronized byte[] get(final String fingerprint) {
+        return outputs.get(fingerprint);
+    }
+
+    /**
+     * Remember an output, unless on its own it is larger than the memo may hold.
+     */
+    public synchronized void put(final String fingerprint, final byte[] output) {
+        if (output.length > maximumSize) {
+            return;
+        }
+        final byte[] previous = outputs.put(fingerprint, output);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += output.length;
+        final Iterator<byte[]> leastRecentlyUsed = outputs.values().iterator();
+        while (size > maximumSize && leastRecentlyUsed.hasNext()) {
+            size -= leastRecentlyUsed.next().length;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+}
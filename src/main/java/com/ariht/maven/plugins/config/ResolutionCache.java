@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Parsed filters and compiled templates shared by every execution in the JVM, so the modules of a
+ * reactor, or successive builds in a long lived Maven daemon, do not re-read the same shared files.
+ *
+ * Entries are keyed by canonical path, size, modification time and whatever else the value depends
+ * on, e.g. the encoding, so a changed file is simply a miss. Values must be immutable. The cache is
+ * bounded by the estimated size of its values and evicts the least recently used entries, and all
+ * access is synchronized so executions of modules built in parallel can share it.
+ */
+public class ResolutionCache {
+
+    private static final ResolutionCache INSTANCE = new ResolutionCache();
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+    private long maximumSize;
+    private long size;
+
+    public static ResolutionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Estimated bytes the cache may hold, evicting at once if it now holds more. Zero disables it.
+     */
+    public synchronized void setMaximumSize(final long maximumSize) {
+        this.maximumSize = Math.max(0, maximumSize);
+        evict();
+    }
+
+    /**
+     * Raise the estimated bytes the cache may hold to at least the given size, never lowering it, so
+     * an execution asking for less cannot evict entries other executions are using.
+     */
+    public synchronized void ensureMaximumSize(final long minimumSize) {
+        maximumSize = Math.max(maximumSize, minimumSize);
+    }
+
+    /**
+     * Key for a value derived from the file as it is now on disk.
+     *
+     * @param kind    what is derived from the file, so different values for one file do not clash
+     * @param variant everything other than the file's content that the value depends on
+     */
+    public static Key keyFor(final String kind, final File file, final String... variant) throws IOException {
+        final File canonicalFile = file.getCanonicalFile();
+        final BasicFileAttributes attributes = Files.readAttributes(canonicalFile.toPath(), BasicFileAttributes.class);
+        return new Key(kind, canonicalFile, attributes.size(), attributes.lastModifiedTime(), StringUtils.join(variant, '\0'));
+    }
+
+    /**
+     * @return the cached value, or null on a miss
+     */
+    public synchronized <T> T get(final Key key, final Class<T> type) {
+        final Entry entry = entries.get(key);
+        return entry == null ? null : type.cast(entry.value);
+    }
+
+    /**
+     * Cache a value, unless on its own it is larger than the cache may hold.
+     *
+     * @param estimatedSize rough number of bytes the value takes up
+     */
+    public synchronized void put(final Key key, final Object value, final long estimatedSize) {
+        if (estimatedSize > maximumSize) {
+            return;
+        }
+        final Entry previous = entries.put(key, new Entry(value, estimatedSize));
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += estimatedSize;
+        evict();
+    }
+
+    /**
+     * Drop every entry derived from the file, or from any file under it if it is a directory, even
+     * though its size and modification time may look unchanged, e.g. after two saves within one tick
+     * of the file system's clock.
+     */
+    public synchronized void invalidate(final File file) throws IOException {
+        final Path path = file.getCanonicalFile().toPath();
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            if (entry.getKey().file.toPath().startsWith(path)) {
+                size -= entry.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void evict() {
+        final Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (size > maximumSize && leastRecentlyUsed.hasNext()) {
+            size -= leastRecentlyUsed.next().size;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    private static class Entry {
+
+        private final Object value;
+        private final long size;
+
+        Entry(final Object value, final long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    public static final class Key {
+
+        private final String kind;
+        private final File file;
+        private final long size;
+        private final FileTime lastModified;
+        private final String variant;
+
+        Key(final String kind, final File file, final long size, final FileTime lastModified, final String variant) {
+            this.kind = kind;
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return size == key.size && kind.equals(key.kind) && file.equals(key.file)
+                    && lastModified.equals(key.lastModified) && variant.equals(key.variant);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = kind.hashCode();
+            hash = 31 * hash + file.hashCode();
+            hash = 31 * hash + (int) (size ^ (size >>> 32));
+            hash = 31 * hash + lastModified.hashCode();
+            return 31 * hash + variant.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return kind + ":" + file;
+        }
+    }
+
+}
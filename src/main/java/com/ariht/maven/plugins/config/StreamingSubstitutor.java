@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.commons.lang.text.StrSubstitutor;
+
+/**
+ * Substitutes place-holders while copying from a reader to a writer, for templates too large to
+ * hold in memory. Memory use is bounded by the buffer size and the longest property key, however
+ * large the template and wherever buffer boundaries fall.
+ *
+ * Output is the same as {@link StrSubstitutor} would give for the whole text: a key runs from "${"
+ * to the next "}", "$${" escapes to a literal "${", values are themselves substituted and unknown
+ * keys are left as they are.
+ */
+public class StreamingSubstitutor {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, String> properties;
+    private final int bufferSize;
+    private final int maxKeyLength;
+
+    public StreamingSubstitutor(final Map<String, String> properties) {
+        this(properties, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingSubstitutor(final Map<String, String> properties, final int bufferSize) {
+        this.properties = properties;
+        this.bufferSize = bufferSize;
+        int longest = 0;
+        for (final String key : properties.keySet()) {
+            longest = Math.max(longest, key.length());
+        }
+        this.maxKeyLength = longest;
+    }
+
+    public void substitute(final Reader reader, final Writer writer) throws IOException {
+        new Substitution(writer).copy(reader);
+    }
+
+    /**
+     * State of a single pass through a template.
+     */
+    private class Substitution {
+
+        private final Writer writer;
+        private final StringBuilder key = new StringBuilder();
+        /** Consecutive '$' characters seen but not yet written. */
+        private int dollars;
+        /** The first pending '$' ended a substituted value, so it can escape a following "${" but not start one. */
+        private boolean dollarEndsValue;
+        private boolean inKey;
+        /** Inside a key longer than any property key, so just copy through to the closing '}'. */
+        private boolean inUnknownKey;
+
+        Substitution(final Writer writer) {
+            this.writer = writer;
+        }
+
+        void copy(final Reader reader) throws IOException {
+            final char[] buffer = new char[bufferSize];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    accept(buffer[i]);
+                }
+            }
+            finish();
+        }
+
+        private void accept(final char c) throws IOException {
+            if (inUnknownKey) {
+                writer.write(c);
+                inUnknownKey = c != TemplateCompiler.SUFFIX;
+            } else if (inKey) {
+                acceptKey(c);
+            } else if (c == TemplateCompiler.ESCAPE) {
+                dollars++;
+            } else if (c == '{' && dollars == 1 && !dollarEndsValue) {
+                dollars = 0;
+                inKey = true;
+            } else {
+                if (c == '{' && dollars > 1) {
+                    // Escaped "${", the escaping '$' is dropped
+                    dollars--;
+                }
+                writePendingDollars();
+                writer.write(c);
+            }
+        }
+
+        private void acceptKey(final char c) throws IOException {
+            if (c == TemplateCompiler.SUFFIX) {
+                inKey = false;
+                writeValue(key.toString());
+                key.setLength(0);
+            } else if (key.length() == maxKeyLength) {
+                // Too long to match any property so it will be left exactly as it is
+                inKey = false;
+                inUnknownKey = true;
+                writer.write(TemplateCompiler.PREFIX);
+                writer.append(key);
+                writer.write(c);
+                key.setLength(0);
+            } else {
+                key.append(c);
+            }
+        }
+
+        private void writeValue(final String name) throws IOException {
+            String value = properties.get(name);
+            if (value == null) {
+                writer.write(TemplateCompiler.PREFIX);
+                writer.write(name);
+                writer.write(TemplateCompiler.SUFFIX);
+                return;
+            }
+            if (value.contains(TemplateCompiler.PREFIX)) {
+                value = StrSubstitutor.replace(TemplateCompiler.PREFIX + name + TemplateCompiler.SUFFIX, properties);
+            }
+            if (value.length() > 0 && value.charAt(value.length() - 1) == TemplateCompiler.ESCAPE) {
+                writer.write(value, 0, value.length() - 1);
+                dollars = 1;
+                dollarEndsValue = true;
+            } else {
+                writer.write(value);
+            }
+        }
+
+        private void writePendingDollars() throws IOException {
+            for (; dollars > 0; dollars--) {
+                writer.write(TemplateCompiler.ESCAPE);
+            }
+            dollarEndsValue = false;
+        }
+
+        private void finish() throws IOException {
+            writePendingDollars();
+            if (inKey) {
+                writer.write(TemplateCompiler.PREFIX);
+                writer.append(key);
+            }
+            writer.flush();
+        }
+    }
+
+}
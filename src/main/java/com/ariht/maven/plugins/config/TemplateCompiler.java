@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses template text once into literal segments and ${key} place-holder references so that
+ * rendering for each filter does not have to scan the text again.
+ *
+ * Place-holders are recognised exactly as {@link org.apache.commons.lang.text.StrSubstitutor}
+ * recognises them by default: a key runs from "${" to the next "}" and "$${" escapes to a literal "${".
+ */
+public final class TemplateCompiler {
+
+    static final char ESCAPE = '$';
+    static final String PREFIX = "${";
+    static final char SUFFIX = '}';
+
+    private TemplateCompiler() {
+    }
+
+    public static CompiledTemplate compile(final String text) {
+        final List<String> segments = new ArrayList<String>();
+        final List<String> keys = new ArrayList<String>();
+        final StringBuilder literal = new StringBuilder();
+        final int length = text.length();
+        int literalStart = 0;
+        int pos = text.indexOf(PREFIX);
+        while (pos >= 0) {
+            if (pos > 0 && text.charAt(pos - 1) == ESCAPE) {
+                // Escaped: drop the escape character and carry on scanning from the '{'
+                literal.append(text, literalStart, pos - 1);
+                literalStart = pos;
+                pos = text.indexOf(PREFIX, pos + 1);
+                continue;
+            }
+            final int end = text.indexOf(SUFFIX, pos + PREFIX.length());
+            if (end < 0) {
+                break;
+            }
+            literal.append(text, literalStart, pos);
+            if (literal.length() > 0) {
+                segments.add(literal.toString());
+                keys.add(null);
+                literal.setLength(0);
+            }
+            segments.add(text.substring(pos, end + 1));
+            keys.add(text.substring(pos + PREFIX.length(), end));
+            literalStart = end + 1;
+            pos = text.indexOf(PREFIX, literalStart);
+        }
+        literal.append(text, literalStart, length);
+        if (literal.length() > 0) {
+            segments.add(literal.toString());
+            keys.add(null);
+        }
+        return new CompiledTemplate(text, segments.toArray(new String[segments.size()]), keys.toArray(new String[keys.size()]));
+    }
+
+}
@@ -19,34 +19,583 @@ package com.ariht.maven.plugins.config;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Not so much a unit test as an example showing filters and templates being processed together.
  */
 public class ConfigProcessorMojoTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     /**
      * Using example inputs in the src/test/resources directory show how the plugin
      * processes each filter into templates.
      */
     @Test
     public void testReadingDirectory() throws MojoExecutionException, MojoFailureException, IOException {
+        final ConfigProcessorMojo configProcessorMojo = createMojo("../generated-unit-tests-config");
+        configProcessorMojo.execute();
+    }
+
+    /**
+     * Generating on several threads must give exactly the same files as generating on one.
+     */
+    @Test
+    public void testParallelGenerationMatchesSequential() throws MojoExecutionException, MojoFailureException, IOException {
+        final ConfigProcessorMojo sequential = createMojo("../generated-unit-tests-config-sequential");
+        sequential.execute();
+        final ConfigProcessorMojo parallel = createMojo("../generated-unit-tests-config-parallel");
+        parallel.threads = "2C";
+        parallel.execute();
+        assertSameFiles(sequential.outputBasePath, parallel.outputBasePath);
+    }
+
+    /**
+     * Streaming templates through the substitutor must give exactly the same files as rendering them in memory.
+     */
+    @Test
+    public void testStreamedGenerationMatchesInMemory() throws MojoExecutionException, MojoFailureException, IOException {
+        final ConfigProcessorMojo inMemory = createMojo("../generated-unit-tests-config-in-memory");
+        inMemory.execute();
+        final ConfigProcessorMojo streamed = createMojo("../generated-unit-tests-config-streamed");
+        streamed.streamingThreshold = 0;
+        streamed.execute();
+        assertSameFiles(inMemory.outputBasePath, streamed.outputBasePath);
+    }
+
+    /**
+     * An incremental run only regenerates outputs whose inputs changed and removes outputs whose
+     * filter has gone, leaving everything else as it was.
+     */
+    @Test
+    public void testIncrementalGeneration() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.copyDirectory(new File(getAbsolutePath("templates")), new File(inputs, "templates"));
+        FileUtils.copyDirectory(new File(getAbsolutePath("filters")), new File(inputs, "filters"));
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.incremental = true;
+        configProcessorMojo.execute();
+
+        final File unchanged = new File(output, "unit_test_dev/properties/unit_test_other_config.properties");
+        FileUtils.writeStringToFile(unchanged, "not regenerated");
+        FileUtils.writeStringToFile(new File(inputs, "templates/example_base.sh"), "dir=${install.dir}");
+        FileUtils.forceDelete(new File(inputs, "filters/unit_test_qa.filter"));
+        configProcessorMojo.execute();
+
+        assertEquals("not regenerated", FileUtils.readFileToString(unchanged));
+        assertEquals("dir=/home/users/dev1/apps/myapp", FileUtils.readFileToString(new File(output, "unit_test_dev/example_base.sh")));
+        assertFalse(new File(output, "unit_test_qa").exists());
+        assertTrue(new File(output, "personal/unit_test_foo/liquibase/liquibase.properties").isFile());
+    }
+
+    /**
+     * Regenerating identical config leaves existing files untouched, while files no longer
+     * generated are removed.
+     */
+    @Test
+    public void testUnchangedOutputsAreNotRewritten() throws MojoExecutionException, MojoFailureException, IOException {
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo("../generated-unit-tests-config");
+        configProcessorMojo.outputBasePath = output.getAbsolutePath();
+        configProcessorMojo.execute();
+
+        final File unchanged = new File(output, "unit_test_dev/liquibase/liquibase.properties");
+        final long lastModified = unchanged.lastModified() - 60000;
+        assertTrue(unchanged.setLastModified(lastModified));
+        final File stale = new File(output, "unit_test_old/stale.properties");
+        FileUtils.writeStringToFile(stale, "stale=true");
+        configProcessorMojo.execute();
+
+        assertEquals(lastModified, unchanged.lastModified());
+        assertFalse(stale.getParentFile().exists());
+    }
+
+    /**
+     * Base filters provide defaults for their directory and below, included filters add to them,
+     * and keys in the filter itself win - with references resolved across all the layers.
+     */
+    @Test
+    public void testFilterLayering() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/url.txt"), "${url} ${extra} ${filter.source}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/common.filter"), "db.host=commonhost\ndb.port=1234\nurl=${db.host}:${db.port}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "db.host=devhost");
+        FileUtils.writeStringToFile(new File(inputs, "filters/team/common.filter"), "db.port=9999");
+        FileUtils.writeStringToFile(new File(inputs, "filters/team/qa.filter"), "include=../../shared/extra.properties");
+        FileUtils.writeStringToFile(new File(inputs, "shared/extra.properties"), "extra=yes\ndb.host=sharedhost");
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.filterLayering = true;
+        configProcessorMojo.execute();
+
+        assertEquals("devhost:1234 ${extra} /dev", FileUtils.readFileToString(new File(output, "dev/url.txt")));
+        assertEquals("sharedhost:9999 yes /team/qa", FileUtils.readFileToString(new File(output, "team/qa/url.txt")));
+        assertFalse(new File(output, "common").exists());
+        assertFalse(new File(output, "team/common").exists());
+    }
+
+    /**
+     * An include inside an included file resolves against the directory of the filter, as Commons
+     * Configuration resolves it, whether or not filters are layered.
+     */
+    @Test
+    public void testNestedIncludesResolveAgainstFilterDirectory() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/app.txt"), "${a} ${b} ${c}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/team/qa.filter"), "include=../../shared/extra.properties\na=1");
+        FileUtils.writeStringToFile(new File(inputs, "shared/extra.properties"), "include=../../shared/nested/deep.properties\nb=2");
+        FileUtils.writeStringToFile(new File(inputs, "shared/nested/deep.properties"), "c=3");
+        final File flatOutput = temporaryFolder.newFolder("flat");
+        createMojo(inputs, flatOutput).execute();
+        final File layeredOutput = temporaryFolder.newFolder("layered");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, layeredOutput);
+        configProcessorMojo.filterLayering = true;
+        configProcessorMojo.execute();
+
+        assertEquals("1 2 3", FileUtils.readFileToString(new File(flatOutput, "team/qa/app.txt")));
+        assertEquals("1 2 3", FileUtils.readFileToString(new File(layeredOutput, "team/qa/app.txt")));
+    }
+
+    /**
+     * Only selected environments and templates are generated, an unselected filter is never read
+     * and config already generated for it is kept, including in its incremental state.
+     */
+    @Test
+    public void testSelectiveGeneration() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.copyDirectory(new File(getAbsolutePath("templates")), new File(inputs, "templates"));
+        FileUtils.copyDirectory(new File(getAbsolutePath("filters")), new File(inputs, "filters"));
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.incremental = true;
+        configProcessorMojo.execute();
+
+        final File prodConfig = new File(output, "unit_test_prod/example_base.sh");
+        final String prodContent = FileUtils.readFileToString(prodConfig);
+        FileUtils.writeStringToFile(new File(inputs, "filters/unit_test_prod.filter"), "not a valid filter ${");
+        FileUtils.writeStringToFile(new File(inputs, "templates/example_base.sh"), "dir=${install.dir}");
+        configProcessorMojo.environments = "unit_test_dev, personal/*_foo";
+        configProcessorMojo.templatesToGenerate = "*.sh";
+        configProcessorMojo.execute();
+
+        assertEquals(prodContent, FileUtils.readFileToString(prodConfig));
+        assertEquals("dir=/home/users/dev1/apps/myapp", FileUtils.readFileToString(new File(output, "unit_test_dev/example_base.sh")));
+        assertTrue(FileUtils.readFileToString(new File(output, "personal/unit_test_foo/example_base.sh")).startsWith("dir="));
+        assertFalse(FileUtils.readFileToString(new File(output, "personal/unit_test_bar/example_base.sh")).startsWith("dir="));
+        assertTrue(new File(output, "unit_test_qa/liquibase/liquibase.properties").isFile());
+
+        FileUtils.copyFile(new File(getAbsolutePath("filters"), "unit_test_prod.filter"), new File(inputs, "filters/unit_test_prod.filter"));
+        configProcessorMojo.environments = "regex:unit_test_(prod|qa)";
+        configProcessorMojo.templatesToGenerate = null;
+        configProcessorMojo.execute();
+
+        assertTrue(FileUtils.readFileToString(prodConfig).startsWith("dir="));
+        assertFalse(FileUtils.readFileToString(new File(output, "personal/unit_test_bar/example_base.sh")).startsWith("dir="));
+    }
+
+    /**
+     * Each filter's config goes into one archive laid out as the directory output would be, and
+     * generating it again gives exactly the same archive.
+     */
+    @Test
+    public void testArchiveOutput() throws MojoExecutionException, MojoFailureException, IOException {
+        final ConfigProcessorMojo directory = createMojo("../generated-unit-tests-config");
+        directory.outputBasePath = temporaryFolder.newFolder("directory").getAbsolutePath();
+        directory.execute();
+        final File output = temporaryFolder.newFolder("archives");
+        final ConfigProcessorMojo archives = createMojo("../generated-unit-tests-config");
+        archives.outputBasePath = output.getAbsolutePath();
+        archives.outputFormat = "zip";
+        archives.threads = "2";
+        archives.execute();
+
+        final File archive = new File(output, "unit_test_dev.zip");
+        final List<String> entryNames = new ArrayList<String>();
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            for (final ZipEntry entry : Collections.list(zipFile.entries())) {
+                entryNames.add(entry.getName());
+                assertEquals(FileUtils.readFileToString(new File(directory.outputBasePath, entry.getName())),
+                        IOUtils.toString(zipFile.getInputStream(entry)));
+            }
+        }
+        assertEquals(Arrays.asList("unit_test_dev/example_base.sh", "unit_test_dev/liquibase/liquibase.properties",
+                "unit_test_dev/properties/unit_test_db_connection.properties",
+                "unit_test_dev/properties/unit_test_other_config.properties"), entryNames);
+        assertTrue(new File(output, "unit_test_prod.zip").isFile());
+
+        final byte[] content = FileUtils.readFileToByteArray(archive);
+        final long lastModified = archive.lastModified() - 60000;
+        assertTrue(archive.setLastModified(lastModified));
+        archives.threads = "1";
+        archives.execute();
+        assertArrayEquals(content, FileUtils.readFileToByteArray(archive));
+        assertEquals(lastModified, archive.lastModified());
+    }
+
+    /**
+     * Every environment's archive is attached, even when an incremental build left it as it was.
+     */
+    @Test
+    public void testUnchangedArchivesAreAttached() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/app.properties"), "host=${host}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "host=dev");
+        FileUtils.writeStringToFile(new File(inputs, "filters/qa/qa.filter"), "host=qa");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, temporaryFolder.newFolder("output"));
+        configProcessorMojo.outputFormat = "zip";
+        configProcessorMojo.incremental = true;
+        configProcessorMojo.attachArchives = true;
+        final List<String> attached = new ArrayList<String>();
+        configProcessorMojo.projectHelper = new MavenProjectHelper() {
+            public void attachArtifact(final MavenProject project, final String type, final String classifier, final File file) {
+                attached.add(classifier + "." + type + "=" + file.getName());
+            }
+            public void attachArtifact(final MavenProject project, final File file, final String classifier) {
+                throw new UnsupportedOperationException();
+            }
+            public void attachArtifact(final MavenProject project, final String type, final File file) {
+                throw new UnsupportedOperationException();
+            }
+            public void addResource(final MavenProject project, final String directory, final List<String> includes, final List<String> excludes) {
+                throw new UnsupportedOperationException();
+            }
+            public void addTestResource(final MavenProject project, final String directory, final List<String> includes, final List<String> excludes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        configProcessorMojo.execute();
+        assertEquals(Arrays.asList("dev.zip=dev.zip", "qa-qa.zip=qa.zip"), attached);
+
+        attached.clear();
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "host=dev2");
+        configProcessorMojo.execute();
+        assertEquals(Arrays.asList("dev.zip=dev.zip", "qa-qa.zip=qa.zip"), attached);
+    }
+
+    /**
+     * A second execution over the same unchanged inputs, as another module of the reactor would be,
+     * takes every filter and template from the cache.
+     */
+    @Test
+    public void testResolutionCacheIsSharedBetweenExecutions() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.copyDirectory(new File(getAbsolutePath("templates")), new File(inputs, "templates"));
+        FileUtils.copyDirectory(new File(getAbsolutePath("filters")), new File(inputs, "filters"));
+        final File metrics = new File(temporaryFolder.getRoot(), "metrics.json");
+        final ConfigProcessorMojo first = createMojo(inputs, temporaryFolder.newFolder("first"));
+        first.execute();
+        final ConfigProcessorMojo second = createMojo(inputs, temporaryFolder.newFolder("second"));
+        second.metricsFile = metrics.getAbsolutePath();
+        second.execute();
+
+        final String json = FileUtils.readFileToString(metrics, "UTF-8");
+        assertFalse(json.contains("\"cacheHits\": 0,"));
+        assertTrue(json.contains("\"cacheMisses\": 0,"));
+        assertTrue(json.contains("\"filtersParsed\": 0,"));
+        assertSameFiles(first.outputBasePath, second.outputBasePath);
+    }
+
+    /**
+     * A later execution sees changes to a file that a filter includes, even though the filter itself is unchanged.
+     */
+    @Test
+    public void testResolutionCacheSeesChangedIncludes() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/app.properties"), "v=${x}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "include=../shared.properties");
+        FileUtils.writeStringToFile(new File(inputs, "shared.properties"), "x=one");
+        final File output = temporaryFolder.newFolder("output");
+        createMojo(inputs, output).execute();
+        assertEquals("v=one", FileUtils.readFileToString(new File(output, "dev/app.properties")));
+
+        FileUtils.writeStringToFile(new File(inputs, "shared.properties"), "x=two");
+        createMojo(inputs, output).execute();
+        assertEquals("v=two", FileUtils.readFileToString(new File(output, "dev/app.properties")));
+    }
+
+    /**
+     * Keys a filter leaves undefined, directly or through a nested reference, fail the build before
+     * anything is rendered, and the key usage report lists which templates use which keys.
+     */
+    @Test
+    public void testUnresolvedPlaceholdersFailBeforeRendering() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/a.txt"), "${host}:${port}");
+        FileUtils.writeStringToFile(new File(inputs, "templates/b.txt"), "${host} $${escaped}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "host=devhost\nport=1\nunused=x");
+        FileUtils.writeStringToFile(new File(inputs, "filters/qa.filter"), "host=${qa.host}\nport=2");
+        final File output = temporaryFolder.newFolder("output");
+        final File report = new File(temporaryFolder.getRoot(), "placeholders.json");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.unresolvedPlaceholders = "fail";
+        configProcessorMojo.placeholderReport = report.getAbsolutePath();
+        try {
+            configProcessorMojo.execute();
+            fail("qa.host is not defined");
+        } catch (MojoFailureException e) {
+            assertEquals("2 filter and template pairs have unresolved place-holders", e.getMessage());
+        }
+        assertEquals(0, FileUtils.listFiles(output, null, true).size());
+        final String json = FileUtils.readFileToString(report, "UTF-8");
+        assertTrue(json.contains("\"host\": [\"a.txt\", \"b.txt\"]"));
+        assertTrue(json.contains("\"port\": [\"a.txt\"]"));
+        assertTrue(json.contains("\"unusedKeys\": [\"unused\"]"));
+
+        configProcessorMojo.unresolvedPlaceholders = "warn";
+        configProcessorMojo.execute();
+        assertEquals("${qa.host}:2", FileUtils.readFileToString(new File(output, "qa/a.txt")));
+
+        // A report written among the outputs is not pruned as stale
+        final File outputReport = new File(output, "placeholders.json");
+        configProcessorMojo.placeholderReport = outputReport.getAbsolutePath();
+        configProcessorMojo.execute();
+        assertTrue(outputReport.isFile());
+
+        // Nor when both are given relative to the working directory
+        final String relativeOutput = Paths.get("").toAbsolutePath().relativize(output.toPath()).toString();
+        configProcessorMojo.outputBasePath = relativeOutput;
+        configProcessorMojo.placeholderReport = relativeOutput + "/placeholders.json";
+        configProcessorMojo.execute();
+        assertTrue(outputReport.isFile());
+    }
+
+    /**
+     * Incremental builds only regenerate the templates that reference a changed key.
+     */
+    @Test
+    public void testIncrementalGenerationTracksReferencedKeys() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/db.txt"), "${db.url}");
+        FileUtils.writeStringToFile(new File(inputs, "templates/app.txt"), "${app.name}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "db.host=one\ndb.url=jdbc:${db.host}\napp.name=app");
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.incremental = true;
+        configProcessorMojo.execute();
+
+        FileUtils.writeStringToFile(new File(output, "dev/app.txt"), "not regenerated");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "db.host=two\ndb.url=jdbc:${db.host}\napp.name=app");
+        configProcessorMojo.execute();
+
+        assertEquals("jdbc:two", FileUtils.readFileToString(new File(output, "dev/db.txt")));
+        assertEquals("not regenerated", FileUtils.readFileToString(new File(output, "dev/app.txt")));
+
+        // An escaped reference stays in the resolved value and is only substituted when rendering
+        FileUtils.writeStringToFile(new File(inputs, "templates/escaped.txt"), "v=${a}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "a=$${x}\nx=one");
+        configProcessorMojo.execute();
+        assertEquals("v=one", FileUtils.readFileToString(new File(output, "dev/escaped.txt")));
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "a=$${x}\nx=two");
+        configProcessorMojo.execute();
+        assertEquals("v=two", FileUtils.readFileToString(new File(output, "dev/escaped.txt")));
+    }
+
+    /**
+     * Stage timings and the slowest inputs can be written as JSON for CI to trend.
+     */
+    @Test
+    public void testMetricsFile() throws MojoExecutionException, MojoFailureException, IOException {
+        final File metrics = new File(temporaryFolder.getRoot(), "metrics/config-processor-metrics.json");
+        final ConfigProcessorMojo configProcessorMojo = createMojo("../generated-unit-tests-config");
+        configProcessorMojo.outputBasePath = temporaryFolder.newFolder("output").getAbsolutePath();
+        configProcessorMojo.metricsFile = metrics.getAbsolutePath();
+        configProcessorMojo.slowestCount = 2;
+        configProcessorMojo.execute();
+
+        final String json = FileUtils.readFileToString(metrics, "UTF-8");
+        assertTrue(json.contains("\"filesGenerated\": 12,"));
+        assertTrue(json.contains("\"render\": "));
+        assertTrue(json.contains("\"path\": \"unit_test_"));
+        assertEquals(4, json.split("\"path\"").length - 1);
+    }
+
+    /**
+     * A dry run logs the plan without writing, pruning or changing the incremental state.
+     */
+    @Test
+    public void testDryRunGeneratesNothing() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.copyDirectory(new File(getAbsolutePath("templates")), new File(inputs, "templates"));
+        FileUtils.copyDirectory(new File(getAbsolutePath("filters")), new File(inputs, "filters"));
+        final File output = new File(temporaryFolder.getRoot(), "output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.incremental = true;
+        configProcessorMojo.placeholderReport = new File(output, "placeholders.json").getAbsolutePath();
+        configProcessorMojo.dryRun = true;
+        configProcessorMojo.execute();
+        assertFalse(output.exists());
+
+        configProcessorMojo.dryRun = false;
+        configProcessorMojo.execute();
+        final File stale = new File(output, "unit_test_dev/stale.properties");
+        FileUtils.writeStringToFile(stale, "stale");
+        FileUtils.writeStringToFile(new File(inputs, "templates/example_base.sh"), "dir=${install.dir}");
+        configProcessorMojo.dryRun = true;
+        configProcessorMojo.execute();
+        assertTrue(stale.isFile());
+        assertFalse(FileUtils.readFileToString(new File(output, "unit_test_dev/example_base.sh")).startsWith("dir="));
+
+        configProcessorMojo.dryRun = false;
+        configProcessorMojo.execute();
+        assertEquals("dir=/home/users/dev1/apps/myapp", FileUtils.readFileToString(new File(output, "unit_test_dev/example_base.sh")));
+    }
+
+    /**
+     * Binary templates and those without place-holders are copied byte for byte, escapes are still substituted.
+     */
+    @Test
+    public void testBinaryAndPlainTemplatesAreCopied() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.copyDirectory(new File(getAbsolutePath("filters")), new File(inputs, "filters"));
+        final byte[] binary = new byte[512];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        final byte[] placeholder = "${install.dir}".getBytes("US-ASCII");
+        System.arraycopy(placeholder, 0, binary, 300, placeholder.length);
+        FileUtils.writeByteArrayToFile(new File(inputs, "templates/keys/app.bin"), binary);
+        final byte[] image = "GIF89a ${install.dir}".getBytes("US-ASCII");
+        FileUtils.writeByteArrayToFile(new File(inputs, "templates/logo.gif"), image);
+        FileUtils.writeStringToFile(new File(inputs, "templates/plain.txt"), "no place-holders here");
+        FileUtils.writeStringToFile(new File(inputs, "templates/escaped.txt"), "literal $${install.dir}");
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.encoding = "UTF-8";
+        configProcessorMojo.execute();
+
+        assertArrayEquals(binary, FileUtils.readFileToByteArray(new File(output, "unit_test_dev/keys/app.bin")));
+        assertArrayEquals(image, FileUtils.readFileToByteArray(new File(output, "unit_test_prod/logo.gif")));
+        assertEquals("no place-holders here", FileUtils.readFileToString(new File(output, "unit_test_qa/plain.txt")));
+        assertEquals("literal ${install.dir}", FileUtils.readFileToString(new File(output, "unit_test_qa/escaped.txt")));
+    }
+
+    /**
+     * Outputs with the same content are hard links to one file until one of them changes.
+     */
+    @Test
+    public void testIdenticalOutputsAreLinked() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/shared.properties"), "port=${port}");
+        FileUtils.writeStringToFile(new File(inputs, "templates/host.properties"), "host=${host}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "port=80\nhost=dev");
+        FileUtils.writeStringToFile(new File(inputs, "filters/qa.filter"), "port=80\nhost=qa");
+        FileUtils.writeStringToFile(new File(inputs, "filters/prod.filter"), "port=443\nhost=prod");
+        final File output = temporaryFolder.newFolder("output");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.deduplicate = true;
+        configProcessorMojo.incremental = true;
+        configProcessorMojo.execute();
+
+        final Path dev = new File(output, "dev/shared.properties").toPath();
+        final Path qa = new File(output, "qa/shared.properties").toPath();
+        assertTrue(Files.isSameFile(dev, qa));
+        assertFalse(Files.isSameFile(dev, new File(output, "prod/shared.properties").toPath()));
+        assertFalse(Files.isSameFile(new File(output, "dev/host.properties").toPath(), new File(output, "qa/host.properties").toPath()));
+
+        // Changing one environment leaves the other's copy alone
+        FileUtils.writeStringToFile(new File(inputs, "filters/qa.filter"), "port=8080\nhost=qa");
+        configProcessorMojo.execute();
+        assertEquals("port=80", FileUtils.readFileToString(dev.toFile()));
+        assertEquals("port=8080", FileUtils.readFileToString(qa.toFile()));
+        assertFalse(Files.isSameFile(dev, qa));
+
+        // A new environment is linked to the outputs the incremental run leaves as they are
+        FileUtils.writeStringToFile(new File(inputs, "filters/uat.filter"), "port=80\nhost=uat");
+        configProcessorMojo.execute();
+        assertTrue(Files.isSameFile(dev, new File(output, "uat/shared.properties").toPath()));
+    }
+
+    /**
+     * A template is rendered once for filters with the same values for the keys it references.
+     */
+    @Test
+    public void testRendersAreReusedForSameReferencedValues() throws MojoExecutionException, MojoFailureException, IOException {
+        final File inputs = temporaryFolder.newFolder("inputs");
+        FileUtils.writeStringToFile(new File(inputs, "templates/port.properties"), "port=${port}");
+        FileUtils.writeStringToFile(new File(inputs, "templates/host.properties"), "host=${host}");
+        FileUtils.writeStringToFile(new File(inputs, "filters/dev.filter"), "port=80\nhost=dev");
+        FileUtils.writeStringToFile(new File(inputs, "filters/qa.filter"), "port=80\nhost=qa");
+        FileUtils.writeStringToFile(new File(inputs, "filters/prod.filter"), "port=443\nhost=prod");
+        final File output = temporaryFolder.newFolder("output");
+        final File metrics = new File(temporaryFolder.getRoot(), "metrics.json");
+        final ConfigProcessorMojo configProcessorMojo = createMojo(inputs, output);
+        configProcessorMojo.metricsFile = metrics.getAbsolutePath();
+        configProcessorMojo.execute();
+
+        assertEquals("port=80", FileUtils.readFileToString(new File(output, "qa/port.properties")));
+        assertEquals("port=443", FileUtils.readFileToString(new File(output, "prod/port.properties")));
+        assertEquals("host=qa", FileUtils.readFileToString(new File(output, "qa/host.properties")));
+        final String json = FileUtils.readFileToString(metrics, "UTF-8");
+        assertTrue(json.contains("\"renderMemoHits\": 1,"));
+        assertTrue(json.contains("\"renderMemoMisses\": 5,"));
+    }
+
+    private ConfigProcessorMojo createMojo(final String outputSubDirectory) throws IOException {
         final ConfigProcessorMojo configProcessorMojo = new ConfigProcessorMojo();
         configProcessorMojo.templatesBasePath = getAbsolutePath("templates");
         configProcessorMojo.filtersBasePath = getAbsolutePath("filters");
-        configProcessorMojo.outputBasePath = getAbsolutePath("../generated-unit-tests-config");
+        configProcessorMojo.outputBasePath = getAbsolutePath(outputSubDirectory);
         configProcessorMojo.setLog(new TestsLogger());
         configProcessorMojo.logOutput = true;
         configProcessorMojo.filtersToIgnore = Lists.newArrayList(getAbsolutePath("filters/personal"));
         configProcessorMojo.templatesToIgnore = Lists.newLinkedList();
-        configProcessorMojo.execute();
+        return configProcessorMojo;
+    }
+
+    /**
+     * Using templates and filters sub-directories of the given inputs directory.
+     */
+    private ConfigProcessorMojo createMojo(final File inputs, final File output) throws IOException {
+        final ConfigProcessorMojo configProcessorMojo = createMojo("../generated-unit-tests-config");
+        configProcessorMojo.templatesBasePath = new File(inputs, "templates").getAbsolutePath();
+        configProcessorMojo.filtersBasePath = new File(inputs, "filters").getAbsolutePath();
+        configProcessorMojo.outputBasePath = output.getAbsolutePath();
+        configProcessorMojo.filtersToIgnore = null;
+        return configProcessorMojo;
+    }
+
+    private void assertSameFiles(final String expectedPath, final String actualPath) throws IOException {
+        final File expectedDirectory = new File(expectedPath);
+        final File actualDirectory = new File(actualPath);
+        final Collection<File> expectedFiles = FileUtils.listFiles(expectedDirectory, null, true);
+        assertFalse(expectedFiles.isEmpty());
+        assertEquals(expectedFiles.size(), FileUtils.listFiles(actualDirectory, null, true).size());
+        for (final File expected : expectedFiles) {
+            final String relativePath = expected.getAbsolutePath().substring(expectedDirectory.getAbsolutePath().length());
+            final File actual = new File(actualDirectory, relativePath);
+            assertTrue("Missing " + actual, actual.isFile());
+            assertTrue("Differs " + actual, FileUtils.contentEquals(expected, actual));
+        }
     }
 
     /**
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Edited, new and deleted templates and filters are picked up while watching.
+ */
+public class ConfigWatchMojoTest {
+
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test(timeout = 60000)
+    public void testChangesAreRegenerated() throws Exception {
+        final File templates = temporaryFolder.newFolder("templates");
+        final File filters = temporaryFolder.newFolder("filters");
+        final File output = temporaryFolder.newFolder("output");
+        FileUtils.writeStringToFile(new File(templates, "app.properties"), "host=${host}");
+        FileUtils.writeStringToFile(new File(filters, "dev.filter"), "host=dev.example.com");
+
+        final Thread watcher = startWatching(createMojo(templates, filters, output));
+        try {
+            final File devConfig = new File(output, "dev/app.properties");
+            awaitContent(devConfig, "host=dev.example.com");
+
+            FileUtils.writeStringToFile(new File(filters, "dev.filter"), "host=dev2.example.com");
+            awaitContent(devConfig, "host=dev2.example.com");
+
+            FileUtils.writeStringToFile(new File(filters, "qa/qa.filter"), "host=qa.example.com");
+            awaitContent(new File(output, "qa/qa/app.properties"), "host=qa.example.com");
+
+            FileUtils.forceDelete(new File(templates, "app.properties"));
+            FileUtils.writeStringToFile(new File(templates, "db.properties"), "url=jdbc://${host}/db");
+            awaitContent(new File(output, "dev/db.properties"), "url=jdbc://dev2.example.com/db");
+            assertFalse(devConfig.exists());
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+        }
+    }
+
+    /**
+     * Only the pairs of a changed template or filter are rendered again, including filters whose
+     * included file outside the filters directory changed, even with the resolution cache disabled.
+     */
+    @Test(timeout = 60000)
+    public void testOnlyAffectedPairsAreRegenerated() throws Exception {
+        final File templates = temporaryFolder.newFolder("templates");
+        final File filters = temporaryFolder.newFolder("filters");
+        final File output = temporaryFolder.newFolder("output");
+        FileUtils.writeStringToFile(new File(templates, "app.properties"), "host=${host}");
+        FileUtils.writeStringToFile(new File(templates, "db.properties"), "db=${db}");
+        FileUtils.writeStringToFile(new File(filters, "dev.filter"), "host=dev\ninclude=../shared.properties");
+        FileUtils.writeStringToFile(new File(filters, "qa.filter"), "host=qa\ndb=qadb");
+        final File shared = temporaryFolder.newFile("shared.properties");
+        FileUtils.writeStringToFile(shared, "db=one");
+        // Not changed since the first generation read it, so nothing is regenerated before it is edited
+        assertTrue(shared.setLastModified(System.currentTimeMillis() - 60000));
+
+        final ConfigWatchMojo configWatchMojo = createMojo(templates, filters, output);
+        configWatchMojo.cacheSize = 0;
+        final File metrics = new File(temporaryFolder.getRoot(), "metrics.json");
+        configWatchMojo.metricsFile = metrics.getAbsolutePath();
+        final Thread watcher = startWatching(configWatchMojo);
+        try {
+            awaitContent(new File(output, "dev/db.properties"), "db=one");
+            awaitExists(metrics);
+            FileUtils.writeStringToFile(new File(output, "qa/db.properties"), "not regenerated");
+            FileUtils.writeStringToFile(new File(output, "dev/app.properties"), "not regenerated");
+            FileUtils.forceDelete(metrics);
+
+            FileUtils.writeStringToFile(shared, "db=two");
+            awaitContent(new File(output, "dev/db.properties"), "db=two");
+            assertEquals("not regenerated", FileUtils.readFileToString(new File(output, "qa/db.properties")));
+            assertEquals("not regenerated", FileUtils.readFileToString(new File(output, "dev/app.properties")));
+            awaitExists(metrics);
+            final String json = FileUtils.readFileToString(metrics, "UTF-8");
+            assertTrue(json, json.contains("\"templatesRead\": 0,"));
+            assertTrue(json, json.contains("\"filtersParsed\": 1,"));
+            assertTrue(json, json.contains("\"filesGenerated\": 1,"));
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+        }
+    }
+
+    private ConfigWatchMojo createMojo(final File templates, final File filters, final File output) {
+        final ConfigWatchMojo configWatchMojo = new ConfigWatchMojo();
+        configWatchMojo.templatesBasePath = templates.getAbsolutePath();
+        configWatchMojo.filtersBasePath = filters.getAbsolutePath();
+        configWatchMojo.outputBasePath = output.getAbsolutePath();
+        configWatchMojo.debounceMillis = 50;
+        configWatchMojo.setLog(new TestsLogger());
+        return configWatchMojo;
+    }
+
+    private static Thread startWatching(final ConfigWatchMojo configWatchMojo) {
+        final Thread watcher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    configWatchMojo.execute();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        watcher.start();
+        return watcher;
+    }
+
+    private static void awaitExists(final File file) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!file.isFile() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("Timed out waiting for " + file, file.isFile());
+    }
+
+    private static void awaitContent(final File file, final String expected) throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (file.isFile() && expected.equals(FileUtils.readFileToString(file))) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        assertTrue("Timed out waiting for " + file, file.isFile());
+        assertEquals(expected, FileUtils.readFileToString(file));
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Relative sub-directories and the different ways of ignoring files.
+ */
+public class DirectoryReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadsRelativeSubDirectoriesAndIgnoresPrefixesAndPatterns() throws IOException {
+        final File root = temporaryFolder.newFolder("filters");
+        for (final String file : new String[] { "dev.filter", "dev.filter.bak", "personal/foo.filter", "team/qa/qa.filter", "old/prod.filter" }) {
+            FileUtils.writeStringToFile(new File(root, file), "environment=" + file);
+        }
+        final List<String> ignore = Lists.newArrayList(new File(root, "old").getAbsolutePath(), "glob:**.bak", "regex:personal");
+        final List<FileInfo> files = new DirectoryReader(new TestsLogger(), "/", ignore).readFiles(root.getAbsolutePath());
+
+        final List<String> found = new ArrayList<String>();
+        for (final FileInfo file : files) {
+            found.add(file.getRelativeSubDirectory() + file.getFile().getName());
+        }
+        assertEquals(Lists.newArrayList("/dev.filter", "/team/qa/qa.filter"), found);
+    }
+
+}
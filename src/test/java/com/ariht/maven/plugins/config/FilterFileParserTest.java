@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationConverter;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Filters parsed directly must give exactly the properties Commons Configuration gives for them.
+ */
+public class FilterFileParserTest {
+
+    private static final String FILTER_SOURCE = "/env/dev";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesCommonsConfiguration() throws Exception {
+        final String[] filters = {
+            "a=1\nb = ${a}-2\nc:${b}/${undefined}\n",
+            "  # comment\n! other comment\n\nkey value\nkey\\ with\\ spaces = x\\ty\\nz\\u0041\n",
+            "list = a, b ,c\nlist=d\nfirst=${list}\nescaped=a\\,b\nleading=,a,b\ntrailing=a\\\n",
+            "continued = one \\\n    two \\\n\n# comment inside\n  three\nlast = end\\\\\n",
+            "nested=${outer}\nouter=${inner}!\ninner=$${not.a.key} $$ $\nfilter.source=ignored\nnoseparator\n=empty key\n",
+            "dangling = at end \\",
+            "colon:value\\:with\\=escapes\r\nwindows = line\r\nmac = line\r",
+            "latin = café ½\ncontrol = \u0085x\n",
+        };
+        for (final String filter : filters) {
+            final Map<String, String> parsed = FilterFileParser.parse(new StringReader(filter), FILTER_SOURCE);
+            assertNotNull(filter, parsed);
+            assertEquals(filter, readWithCommons(filter), parsed);
+        }
+    }
+
+    @Test
+    public void testUnsupportedFiltersAreLeftToCommons() throws IOException {
+        assertNull(FilterFileParser.parse(new StringReader("include = other.filter\na=1"), FILTER_SOURCE));
+        assertNull(FilterFileParser.parse(new StringReader("home=${env:HOME}"), FILTER_SOURCE));
+        assertNull(FilterFileParser.parse(new StringReader("bad=\\uZZZZ"), FILTER_SOURCE));
+        assertNull(FilterFileParser.parse(new StringReader("a=${b}\nb=${a}"), FILTER_SOURCE));
+    }
+
+    @Test
+    public void testRandomFiltersMatchCommonsConfiguration() throws Exception {
+        final char[] alphabet = {'a', 'b', 'u', 'n', '0', 'f', ' ', '\t', '\\', '=', ':', ',', '$', '{', '}', '#', '!', '\n', '\r'};
+        final Random random = new Random(42);
+        int parsedCount = 0;
+        for (int i = 0; i < 2000; i++) {
+            final StringBuilder filter = new StringBuilder();
+            for (int length = random.nextInt(60); length > 0; length--) {
+                filter.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            final Map<String, String> parsed = FilterFileParser.parse(new StringReader(filter.toString()), FILTER_SOURCE);
+            final Map<String, String> expected;
+            try {
+                expected = readWithCommons(filter.toString());
+            } catch (Exception e) {
+                assertNull(filter.toString(), parsed);
+                continue;
+            }
+            if (parsed != null) {
+                assertEquals(filter.toString(), expected, parsed);
+                parsedCount++;
+            }
+        }
+        assertTrue(parsedCount > 1000);
+    }
+
+    @Test
+    public void testPropertyTable() {
+        final Map<String, String> properties = new HashMap<String, String>();
+        for (int i = 0; i < 100; i++) {
+            properties.put("key." + i, "value." + i);
+        }
+        final PropertyTable table = PropertyTable.copyOf(properties);
+        assertEquals(properties, table);
+        assertEquals(properties.hashCode(), table.hashCode());
+        assertEquals("value.42", table.get("key.42"));
+        assertNull(table.get("key.100"));
+        assertNull(table.get(42));
+        assertEquals(0, PropertyTable.copyOf(new HashMap<String, String>()).size());
+    }
+
+    /**
+     * As filters were read before, with the file constructor and so as ISO-8859-1.
+     */
+    private Map<String, String> readWithCommons(final String filter) throws Exception {
+        final File file = temporaryFolder.newFile();
+        FileUtils.writeStringToFile(file, filter, "ISO-8859-1");
+        final PropertiesConfiguration config = new PropertiesConfiguration(file);
+        config.setProperty(FilterLoader.FILTER_SOURCE_KEY, FILTER_SOURCE);
+        final Properties properties = ConfigurationConverter.getProperties(config);
+        final Map<String, String> resolved = new HashMap<String, String>();
+        for (final String key : properties.stringPropertyNames()) {
+            resolved.put(key, properties.getProperty(key));
+        }
+        return resolved;
+    }
+
+}
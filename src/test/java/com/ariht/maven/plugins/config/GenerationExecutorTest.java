@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Running tasks on a pool and handing results back in task order.
+ */
+public class GenerationExecutorTest {
+
+    /**
+     * An error thrown on a worker thread fails the execution instead of cutting the results short.
+     */
+    @Test
+    public void testErrorInWorkerFailsExecution() throws Exception {
+        final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(new Callable<Integer>() {
+            public Integer call() {
+                throw new StackOverflowError("task 0");
+            }
+        });
+        for (int i = 1; i < 6; i++) {
+            final int result = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return result;
+                }
+            });
+        }
+        final List<Integer> handled = new ArrayList<Integer>();
+        try {
+            new GenerationExecutor(4).execute(tasks, new GenerationExecutor.ResultHandler<Integer>() {
+                public void handle(final Integer result) {
+                    handled.add(result);
+                }
+            });
+            fail("Expected the error thrown by the first task");
+        } catch (StackOverflowError e) {
+            assertEquals("task 0", e.getMessage());
+        }
+        assertEquals(0, handled.size());
+    }
+
+}
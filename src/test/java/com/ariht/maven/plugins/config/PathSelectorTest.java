@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Splitting a selection into patterns and matching relative paths against them.
+ */
+public class PathSelectorTest {
+
+    /**
+     * Commas in a regex quantifier or glob alternatives do not separate patterns.
+     */
+    @Test
+    public void testCommasWithinPatterns() {
+        final PathSelector selector = new PathSelector("regex:env{1,2}, {dev,qa}/*, regex:[a,b]x");
+        assertTrue(selector.matches("env"));
+        assertTrue(selector.matches("/envv"));
+        assertFalse(selector.matches("envvv"));
+        assertTrue(selector.matches("dev/app.properties"));
+        assertTrue(selector.matches("qa/app.properties"));
+        assertFalse(selector.matches("prod/app.properties"));
+        assertTrue(selector.matches(",x"));
+        assertFalse(selector.matches("cx"));
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Entries are dropped when their file changes or when the cache grows beyond its size.
+ */
+public class ResolutionCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testChangedFileIsAMiss() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        cache.setMaximumSize(1000);
+        final File file = temporaryFolder.newFile("dev.filter");
+        FileUtils.writeStringToFile(file, "a=1");
+        cache.put(ResolutionCache.keyFor("filter", file, "UTF-8"), "resolved", 10);
+
+        assertEquals("resolved", cache.get(ResolutionCache.keyFor("filter", file, "UTF-8"), String.class));
+        assertNull(cache.get(ResolutionCache.keyFor("filter", file, "ISO-8859-1"), String.class));
+        assertNull(cache.get(ResolutionCache.keyFor("template", file, "UTF-8"), String.class));
+        FileUtils.writeStringToFile(file, "a=12");
+        assertNull(cache.get(ResolutionCache.keyFor("filter", file, "UTF-8"), String.class));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        cache.setMaximumSize(100);
+        final ResolutionCache.Key[] keys = new ResolutionCache.Key[4];
+        for (int i = 0; i < keys.length; i++) {
+            final File file = temporaryFolder.newFile(i + ".filter");
+            keys[i] = ResolutionCache.keyFor("filter", file);
+        }
+        cache.put(keys[0], "0", 40);
+        cache.put(keys[1], "1", 40);
+        cache.get(keys[0], String.class);
+        cache.put(keys[2], "2", 40);
+        cache.put(keys[3], "3", 101);
+
+        assertEquals("0", cache.get(keys[0], String.class));
+        assertNull(cache.get(keys[1], String.class));
+        assertEquals("2", cache.get(keys[2], String.class));
+        assertNull(cache.get(keys[3], String.class));
+        cache.setMaximumSize(50);
+        assertNull(cache.get(keys[0], String.class));
+        assertEquals("2", cache.get(keys[2], String.class));
+    }
+
+    /**
+     * Executions asking for a smaller cache than an earlier one keep what is already cached.
+     */
+    @Test
+    public void testEnsuredSizeNeverShrinks() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        cache.ensureMaximumSize(100);
+        final ResolutionCache.Key key = ResolutionCache.keyFor("filter", temporaryFolder.newFile("dev.filter"));
+        cache.put(key, "dev", 80);
+        cache.ensureMaximumSize(0);
+        cache.ensureMaximumSize(10);
+        assertEquals("dev", cache.get(key, String.class));
+    }
+
+    @Test
+    public void testInvalidatedFilesAreMisses() throws IOException {
+        final ResolutionCache cache = new ResolutionCache();
+        cache.setMaximumSize(100);
+        final File dev = temporaryFolder.newFile("dev.filter");
+        final File qa = new File(temporaryFolder.newFolder("qa"), "qa.filter");
+        final File prod = temporaryFolder.newFile("prod.filter");
+        FileUtils.writeStringToFile(qa, "a=1");
+        cache.put(ResolutionCache.keyFor("filter", dev), "dev", 40);
+        cache.put(ResolutionCache.keyFor("filter", qa), "qa", 40);
+        cache.put(ResolutionCache.keyFor("filter", prod), "prod", 20);
+
+        cache.invalidate(dev);
+        assertNull(cache.get(ResolutionCache.keyFor("filter", dev), String.class));
+        cache.invalidate(qa.getParentFile());
+        assertNull(cache.get(ResolutionCache.keyFor("filter", qa), String.class));
+        assertEquals("prod", cache.get(ResolutionCache.keyFor("filter", prod), String.class));
+        // The size of invalidated entries is freed
+        cache.put(ResolutionCache.keyFor("filter", dev), "dev", 80);
+        assertEquals("prod", cache.get(ResolutionCache.keyFor("filter", prod), String.class));
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang.text.StrSubstitutor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Streamed substitution must give the same output as StrSubstitutor whatever the buffer size.
+ */
+public class StreamingSubstitutorTest {
+
+    private final Map<String, String> properties = new HashMap<String, String>();
+
+    public StreamingSubstitutorTest() {
+        properties.put("db.host", "somehost");
+        properties.put("db.port", "1234");
+        properties.put("url", "${db.host}:${db.port}");
+        properties.put("dollar", "x$");
+        properties.put("empty", "");
+        properties.put("missing.ref", "${nowhere}");
+    }
+
+    @Test
+    public void testSubstitutesLikeStrSubstitutor() throws IOException {
+        final String[] templates = {
+                "", "plain text", "${db.host}", "host=${db.host} port=${db.port}",
+                "$${db.host}", "$$${db.host}", "$$$${db.host}", "${db.host", "${}", "${unknown}",
+                "${url}/path", "${missing.ref}", "${db.host}${db.port}", "$${db.host${db.port}}",
+                "${dollar}${db.host}", "${dollar}{db.host}", "${dollar}$${db.host}", "${dollar}$$${db.host}",
+                "${dollar}${unknown}", "a $ b $$ c ${ d } e", "${a.key.much.longer.than.any.property}${db.host}", "$"
+        };
+        for (final String template : templates) {
+            assertSubstitutesLikeStrSubstitutor(template, 1);
+            assertSubstitutesLikeStrSubstitutor(template, 3);
+        }
+    }
+
+    @Test
+    public void testRandomTemplatesSubstituteLikeStrSubstitutor() throws IOException {
+        final String[] pieces = { "$", "{", "}", "db.host", "db.port", "url", "dollar", "empty", "x", " " };
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            final StringBuilder template = new StringBuilder();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                template.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertSubstitutesLikeStrSubstitutor(template.toString(), 1 + random.nextInt(8));
+        }
+    }
+
+    private void assertSubstitutesLikeStrSubstitutor(final String template, final int bufferSize) throws IOException {
+        final StringWriter output = new StringWriter();
+        new StreamingSubstitutor(properties, bufferSize).substitute(new StringReader(template), output);
+        assertEquals(template, StrSubstitutor.replace(template, properties), output.toString());
+    }
+
+}
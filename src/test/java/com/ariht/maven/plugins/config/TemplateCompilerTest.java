@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Software Design Studio Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ariht.maven.plugins.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang.text.StrSubstitutor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Compiled templates must render exactly as StrSubstitutor does.
+ */
+public class TemplateCompilerTest {
+
+    private final Map<String, String> properties = new HashMap<String, String>();
+
+    public TemplateCompilerTest() {
+        properties.put("db.host", "somehost");
+        properties.put("db.port", "1234");
+        properties.put("url", "${db.host}:${db.port}");
+        properties.put("dollar", "x$");
+        properties.put("empty", "");
+        properties.put("missing.ref", "${nowhere}");
+    }
+
+    @Test
+    public void testRendersLikeStrSubstitutor() {
+        final String[] templates = {
+                "", "plain text", "${db.host}", "host=${db.host} port=${db.port}",
+                "$${db.host}", "$$${db.host}", "$$$${db.host}", "${db.host", "${}", "${unknown}",
+                "${url}/path", "${missing.ref}", "${db.host}${db.port}", "$${db.host${db.port}}",
+                "${dollar}${db.host}", "${dollar}${empty}${db.host}", "${dollar}{db.host}", "${dollar}$${db.host}",
+                "${dollar}${unknown}", "a $ b $$ c ${ d } e"
+        };
+        for (final String template : templates) {
+            assertRendersLikeStrSubstitutor(template);
+        }
+    }
+
+    @Test
+    public void testRandomTemplatesRenderLikeStrSubstitutor() {
+        final String[] pieces = { "$", "{", "}", "db.host", "db.port", "url", "dollar", "empty", "x", " " };
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            final StringBuilder template = new StringBuilder();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                template.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertRendersLikeStrSubstitutor(template.toString());
+        }
+    }
+
+    @Test
+    public void testCyclicReferenceFails() {
+        properties.put("a", "${b}");
+        properties.put("b", "${a}");
+        try {
+            TemplateCompiler.compile("${a}").render(properties);
+            fail("Expected cyclic reference to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("Infinite loop in property interpolation of ${a}: a->b->a", e.getMessage());
+        }
+    }
+
+    private void assertRendersLikeStrSubstitutor(final String template) {
+        assertEquals(template, StrSubstitutor.replace(template, properties), TemplateCompiler.compile(template).render(properties));
+    }
+
+}